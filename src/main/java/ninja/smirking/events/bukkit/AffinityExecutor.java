@@ -0,0 +1,122 @@
+package ninja.smirking.events.bukkit;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.base.Preconditions;
+import org.bukkit.event.Event;
+
+/**
+ * Runs tasks that share an affinity key one at a time and in submission order, whilst tasks for other keys run in
+ * parallel on the backing {@link Executor}.
+ * <p>
+ * Keys are spread over a fixed number of lanes by their hash code, so no reference to the key is retained and
+ * a key such as a {@link org.bukkit.World} can be unloaded safely. Each lane is a lock-free queue that is drained by
+ * at most one backing thread at a time.
+ *
+ * @author Connor Spencer Harries
+ * @version 1.0
+ * @since 1.0
+ */
+public final class AffinityExecutor {
+    private static final Logger internalLogger = Logger.getLogger(AffinityExecutor.class.getCanonicalName());
+    private static final int DRAIN_LIMIT = 256;
+
+    private final Executor backing;
+    private final Lane[] lanes;
+
+    /**
+     * Create an affinity executor with four lanes for each available processor.
+     *
+     * @param backing non-null executor that runs the lanes.
+     */
+    public AffinityExecutor(Executor backing) {
+        this(backing, Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    /**
+     * Create an affinity executor.
+     *
+     * @param backing non-null executor that runs the lanes.
+     * @param lanes   number of lanes, keys that share a lane are run one at a time.
+     */
+    public AffinityExecutor(Executor backing, int lanes) {
+        Preconditions.checkArgument(lanes > 0, "lanes must be positive");
+        this.backing = Preconditions.checkNotNull(backing, "backing");
+        this.lanes = new Lane[lanes];
+        for (int i = 0; i < lanes; i++) {
+            this.lanes[i] = new Lane();
+        }
+    }
+
+    /**
+     * Get the executor for an affinity key.
+     *
+     * @param key non-null affinity key.
+     * @return non-null executor that runs tasks for the key in order.
+     */
+    public Executor forKey(Object key) {
+        Preconditions.checkNotNull(key, "key");
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return lanes[(hash & Integer.MAX_VALUE) % lanes.length];
+    }
+
+    /**
+     * Create a router for {@link EventBus#observeRouted} which picks a lane by the affinity key of each event.
+     *
+     * @param keyExtractor non-null function that returns the affinity key of an event, such as its world.
+     * @param <T>          event type.
+     * @return non-null router.
+     */
+    public <T extends Event> Function<T, Executor> route(Function<? super T, ?> keyExtractor) {
+        Preconditions.checkNotNull(keyExtractor, "keyExtractor");
+        return event -> forKey(keyExtractor.apply(event));
+    }
+
+    private final class Lane implements Executor, Runnable {
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.offer(Preconditions.checkNotNull(task, "task"));
+            schedule();
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < DRAIN_LIMIT; i++) {
+                Runnable task = tasks.poll();
+                if (task == null) {
+                    break;
+                }
+                try {
+                    task.run();
+                } catch (Throwable cause) {
+                    internalLogger.log(Level.WARNING, "An affinity task threw an exception", cause);
+                }
+            }
+            scheduled.set(false);
+            if (!tasks.isEmpty()) {
+                schedule();
+            }
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    backing.execute(this);
+                } catch (RuntimeException ex) {
+                    scheduled.set(false);
+                    throw ex;
+                }
+            }
+        }
+    }
+}
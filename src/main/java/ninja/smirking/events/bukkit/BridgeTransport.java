@@ -0,0 +1,30 @@
+package ninja.smirking.events.bukkit;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Moves encoded frames between the servers connected by an {@link EventBridge}.
+ * A transport may deliver frames on any thread.
+ *
+ * @author Connor Spencer Harries
+ * @version 1.0
+ * @since 1.0
+ */
+public interface BridgeTransport extends Closeable {
+    /**
+     * Send a frame to every other server on the transport.
+     *
+     * @param frame non-null encoded frame.
+     * @throws IOException if the frame could not be sent.
+     */
+    void send(byte[] frame) throws IOException;
+
+    /**
+     * Set the consumer that frames received from other servers are passed to.
+     *
+     * @param receiver non-null frame consumer.
+     */
+    void bind(Consumer<byte[]> receiver);
+}
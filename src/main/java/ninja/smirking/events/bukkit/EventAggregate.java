@@ -0,0 +1,132 @@
+package ninja.smirking.events.bukkit;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import org.bukkit.event.Event;
+import org.bukkit.event.Listener;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * A set of counters that are updated by events, such as the number of messages sent by each player.
+ * Each key is updated under its own bin of a {@link ConcurrentHashMap}, so handlers running on several threads only
+ * contend when they update the same key, never on a shared lock.
+ * <p>
+ * Aggregates are created by {@link EventBus#count} and {@link EventBus#sum}.
+ *
+ * @param <K> key type.
+ * @author Connor Spencer Harries
+ * @version 1.0
+ * @since 1.0
+ */
+public final class EventAggregate<K> implements Listener {
+    private final Map<K, AtomicLong> counters = new ConcurrentHashMap<>();
+    private final EventBus bus;
+    private final Class<? extends Event> eventType;
+
+    EventAggregate(EventBus bus, Class<? extends Event> eventType) {
+        this.bus = bus;
+        this.eventType = eventType;
+    }
+
+    /**
+     * Get the current value of a key.
+     *
+     * @param key non-null key.
+     * @return current value, or {@code 0} if the key has not been seen.
+     */
+    public long get(K key) {
+        AtomicLong counter = counters.get(Preconditions.checkNotNull(key, "key"));
+        return counter == null ? 0L : counter.get();
+    }
+
+    /**
+     * Get the sum of every key.
+     *
+     * @return current total.
+     */
+    public long total() {
+        long total = 0L;
+        for (AtomicLong counter : counters.values()) {
+            total += counter.get();
+        }
+        return total;
+    }
+
+    /**
+     * Copy the current value of every key. Values that are updated whilst the snapshot is being taken may or may not
+     * be included.
+     *
+     * @return non-null immutable snapshot.
+     */
+    public Map<K, Long> snapshot() {
+        ImmutableMap.Builder<K, Long> builder = ImmutableMap.builder();
+        for (Map.Entry<K, AtomicLong> entry : counters.entrySet()) {
+            builder.put(entry.getKey(), entry.getValue().get());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Copy the current value of every key and reset it to zero, which is useful for per-interval rates.
+     * Keys that have not changed since the last reset are left out of the snapshot and forgotten, so keys that stop
+     * being seen, such as players that have logged out, do not build up.
+     *
+     * @return non-null immutable snapshot.
+     */
+    public Map<K, Long> snapshotAndReset() {
+        ImmutableMap.Builder<K, Long> builder = ImmutableMap.builder();
+        for (K key : counters.keySet()) {
+            // Resetting and evicting under the bin of the key means no update can land on a counter once it is removed
+            counters.computeIfPresent(key, (k, counter) -> {
+                long value = counter.getAndSet(0L);
+                if (value == 0L) {
+                    return null;
+                }
+                builder.put(k, value);
+                return counter;
+            });
+        }
+        return builder.build();
+    }
+
+    /**
+     * Pass a snapshot to a consumer at a fixed interval. Snapshots are taken asynchronously so they never delay a tick.
+     *
+     * @param periodTicks number of ticks between snapshots.
+     * @param reset       whether each snapshot should reset the counters, see {@link #snapshotAndReset()}.
+     * @param consumer    non-null consumer that receives each snapshot.
+     * @return non-null task that can be cancelled to stop publishing snapshots.
+     */
+    public BukkitTask publishEvery(long periodTicks, boolean reset, Consumer<? super Map<K, Long>> consumer) {
+        Preconditions.checkArgument(periodTicks > 0L, "periodTicks must be positive");
+        Preconditions.checkNotNull(consumer, "consumer");
+        return bus.getPlugin().getServer().getScheduler().runTaskTimerAsynchronously(bus.getPlugin(), () -> {
+            consumer.accept(reset ? snapshotAndReset() : snapshot());
+        }, periodTicks, periodTicks);
+    }
+
+    /**
+     * Stop updating the counters. The current values can still be read.
+     */
+    public void unregister() {
+        bus.getHandlerList(eventType).unregister(this);
+    }
+
+    void add(K key, long value) {
+        if (key == null) {
+            return;
+        }
+        counters.compute(key, (k, counter) -> {
+            if (counter == null) {
+                counter = new AtomicLong();
+            }
+            counter.addAndGet(value);
+            return counter;
+        });
+    }
+}
@@ -0,0 +1,435 @@
+package ninja.smirking.events.bukkit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import com.google.common.base.Preconditions;
+import org.bukkit.Server;
+import org.bukkit.event.Cancellable;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Re-publishes selected {@link Event} types to other servers through a {@link BridgeTransport}.
+ * <p>
+ * Events are encoded as soon as they have been handled locally and are sent in a single frame once per tick.
+ * The name of each event type is only sent the first time it is used (and periodically afterwards so that
+ * servers which connect later can learn it), every other reference uses a small numeric identifier. A server that
+ * receives an identifier it has not learnt yet asks the sender to announce its event types again, rather than waiting
+ * for the periodic announcement, and forgets servers that it has not heard from for a while.
+ * Events received from other servers are fired on this server so that handlers registered through {@link Events}
+ * or an {@link EventBus} see them like any other event, {@link #isRemote(Event)} can be used to tell the two apart.
+ *
+ * @author Connor Spencer Harries
+ * @version 1.0
+ * @since 1.0
+ */
+public final class EventBridge implements Closeable {
+    private static final ThreadLocal<Event> remoteEvent = new ThreadLocal<>();
+    private static final ThreadLocal<Buffer> encodeBuffer = ThreadLocal.withInitial(Buffer::new);
+    private static final int SCHEMA_REFRESH_INTERVAL = 200;
+    private static final long PEER_TIMEOUT = TimeUnit.MINUTES.toNanos(1L);
+    private static final long REQUEST_INTERVAL = TimeUnit.SECONDS.toNanos(1L);
+
+    private final Map<Class<? extends Event>, Schema<?>> schemasByType = new ConcurrentHashMap<>();
+    private final Map<String, Schema<?>> schemasByName = new ConcurrentHashMap<>();
+    private final Map<Long, Peer> peers = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final List<Schema<?>> batchSchemas = new ArrayList<>();
+    private final Buffer batch = new Buffer();
+    private final BridgeTransport transport;
+    private final EventBus bus;
+    private final Plugin plugin;
+    private final long nodeId;
+
+    private BukkitTask flushTask;
+    private int batchSize;
+    private long frames;
+
+    /**
+     * Create a bridge that sends and receives frames through the given transport.
+     *
+     * @param plugin    non-null plugin that owns the bridge.
+     * @param transport non-null transport connecting this server to the others.
+     */
+    public EventBridge(Plugin plugin, BridgeTransport transport) {
+        this(new EventBus(Preconditions.checkNotNull(plugin, "plugin")), transport);
+    }
+
+    /**
+     * Create a bridge that sends and receives frames through the given transport.
+     *
+     * @param bus       non-null bus that the bridge registers its handlers through.
+     * @param transport non-null transport connecting this server to the others.
+     */
+    public EventBridge(EventBus bus, BridgeTransport transport) {
+        this.bus = Preconditions.checkNotNull(bus, "bus");
+        this.plugin = bus.getPlugin();
+        this.transport = Preconditions.checkNotNull(transport, "transport");
+        this.nodeId = ThreadLocalRandom.current().nextLong();
+        transport.bind(this::receive);
+    }
+
+    /**
+     * Determine whether an event was received from another server.
+     * This is only meaningful whilst the event is being handled.
+     *
+     * @param event event being handled.
+     * @return {@code true} if the event is being re-emitted by an {@link EventBridge}.
+     */
+    public static boolean isRemote(Event event) {
+        return event != null && remoteEvent.get() == event;
+    }
+
+    /**
+     * Bridge an event type. Local events of the given type are sent to the other servers and events of the given
+     * type received from the other servers are fired on this server. Every server must use the same codec.
+     *
+     * @param eventType non-null event type.
+     * @param codec     non-null codec for the event type.
+     * @param <T>       event type.
+     * @return this bridge.
+     */
+    public synchronized <T extends Event> EventBridge bridge(Class<T> eventType, EventCodec<T> codec) {
+        Preconditions.checkNotNull(eventType, "eventType");
+        Preconditions.checkNotNull(codec, "codec");
+        Preconditions.checkState(!schemasByType.containsKey(eventType), "%s is already bridged", eventType.getName());
+
+        Schema<T> schema = new Schema<>(schemasByType.size(), eventType, codec);
+        schemasByType.put(eventType, schema);
+        schemasByName.put(eventType.getName(), schema);
+        listeners.add(bus.observeAll(eventType, event -> capture(schema, event), EventPriority.MONITOR));
+        return this;
+    }
+
+    /**
+     * Start sending a frame once per tick.
+     */
+    public synchronized void start() {
+        Preconditions.checkState(flushTask == null, "bridge has already been started");
+        flushTask = plugin.getServer().getScheduler().runTaskTimer(plugin, this::flush, 1L, 1L);
+    }
+
+    /**
+     * Send every event that has been captured since the last frame was sent.
+     * This is called once per tick after {@link #start()}, it only needs to be called manually when the bridge has not been started.
+     */
+    public void flush() {
+        byte[] frame;
+        long frameNumber;
+        List<Schema<?>> announced;
+        synchronized (batch) {
+            if (batchSize == 0) {
+                return;
+            }
+            frameNumber = frames++;
+            announced = announcements(frameNumber);
+            try {
+                frame = encodeFrame(announced);
+            } catch (IOException ex) {
+                // $COVERAGE-IGNORE$
+                EventBus.internalLogger.log(Level.WARNING, "Failed to encode frame", ex);
+                return;
+            } finally {
+                batch.reset();
+                batchSchemas.clear();
+                batchSize = 0;
+            }
+        }
+
+        try {
+            transport.send(frame);
+        } catch (IOException | RuntimeException ex) {
+            EventBus.internalLogger.log(Level.WARNING, "Failed to send frame, " + frame.length + " bytes were dropped", ex);
+            return;
+        }
+
+        // Only count a schema as announced once a frame carrying it has actually left, otherwise the next frame retries
+        synchronized (batch) {
+            for (Schema<?> schema : announced) {
+                schema.announced = frameNumber;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (flushTask != null) {
+            flushTask.cancel();
+            flushTask = null;
+        }
+        for (Listener listener : listeners) {
+            HandlerList.unregisterAll(listener);
+        }
+        listeners.clear();
+        flush();
+        transport.close();
+    }
+
+    private <T extends Event> void capture(Schema<T> schema, T event) {
+        if (isRemote(event) || (event instanceof Cancellable && ((Cancellable) event).isCancelled())) {
+            return;
+        }
+
+        Buffer buffer = encodeBuffer.get();
+        buffer.reset();
+        try {
+            schema.codec.encode(event, buffer.data);
+        } catch (IOException ex) {
+            EventBus.internalLogger.log(Level.WARNING, "Failed to encode " + schema.type.getName(), ex);
+            return;
+        }
+
+        synchronized (batch) {
+            try {
+                writeVarInt(batch.data, schema.id);
+                writeVarInt(batch.data, buffer.size());
+                buffer.writeTo(batch);
+            } catch (IOException ex) {
+                // $COVERAGE-IGNORE$
+                throw new AssertionError(ex);
+            }
+            if (!batchSchemas.contains(schema)) {
+                batchSchemas.add(schema);
+            }
+            batchSize++;
+        }
+    }
+
+    private List<Schema<?>> announcements(long frame) {
+        List<Schema<?>> announced = new ArrayList<>(batchSchemas.size());
+        for (Schema<?> schema : batchSchemas) {
+            if (schema.announced < 0 || frame - schema.announced >= SCHEMA_REFRESH_INTERVAL) {
+                announced.add(schema);
+            }
+        }
+        return announced;
+    }
+
+    private byte[] encodeFrame(List<Schema<?>> announced) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(batch.size() + 16);
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeLong(nodeId);
+        writeVarInt(output, 0);
+        writeVarInt(output, announced.size());
+        for (Schema<?> schema : announced) {
+            writeVarInt(output, schema.id);
+            output.writeUTF(schema.type.getName());
+        }
+        writeVarInt(output, batchSize);
+        batch.writeTo(output);
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Get the number of servers that this bridge has received frames from recently.
+     *
+     * @return known server count.
+     */
+    public int getPeerCount() {
+        return peers.size();
+    }
+
+    private void receive(byte[] frame) {
+        try {
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(frame));
+            long origin = input.readLong();
+            if (origin == nodeId) {
+                return;
+            }
+
+            long now = bus.getClock().nanoTime();
+            Peer peer = peers.get(origin);
+            if (peer == null) {
+                // A server that restarts comes back with a new identifier, so forget the servers that have gone quiet
+                evictPeers(now);
+                peer = peers.computeIfAbsent(origin, key -> new Peer(now));
+            }
+            peer.lastSeen = now;
+
+            boolean requested = false;
+            for (int i = readVarInt(input); i > 0; i--) {
+                if (input.readLong() == nodeId) {
+                    requested = true;
+                }
+            }
+            if (requested) {
+                reannounce();
+            }
+
+            for (int i = readVarInt(input); i > 0; i--) {
+                int id = readVarInt(input);
+                Schema<?> schema = schemasByName.get(input.readUTF());
+                if (schema == null) {
+                    peer.unbridged.put(id, Boolean.TRUE);
+                } else {
+                    peer.schemas.put(id, schema);
+                }
+            }
+
+            boolean unknown = false;
+            for (int i = readVarInt(input); i > 0; i--) {
+                int id = readVarInt(input);
+                byte[] payload = new byte[readVarInt(input)];
+                input.readFully(payload);
+                Schema<?> schema = peer.schemas.get(id);
+                if (schema != null) {
+                    decode(schema, payload);
+                } else if (!peer.unbridged.containsKey(id)) {
+                    unknown = true;
+                }
+            }
+            if (unknown && now - peer.requested >= REQUEST_INTERVAL) {
+                peer.requested = now;
+                requestSchemas(origin);
+            }
+        } catch (IOException | RuntimeException ex) {
+            EventBus.internalLogger.log(Level.WARNING, "Discarding malformed frame", ex);
+        }
+    }
+
+    private void evictPeers(long now) {
+        for (Iterator<Peer> iterator = peers.values().iterator(); iterator.hasNext(); ) {
+            if (now - iterator.next().lastSeen >= PEER_TIMEOUT) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private void reannounce() {
+        synchronized (batch) {
+            for (Schema<?> schema : schemasByType.values()) {
+                schema.announced = -1L;
+            }
+        }
+    }
+
+    private void requestSchemas(long origin) {
+        byte[] frame;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(16);
+            DataOutputStream output = new DataOutputStream(bytes);
+            output.writeLong(nodeId);
+            writeVarInt(output, 1);
+            output.writeLong(origin);
+            writeVarInt(output, 0);
+            writeVarInt(output, 0);
+            output.flush();
+            frame = bytes.toByteArray();
+        } catch (IOException ex) {
+            // $COVERAGE-IGNORE$
+            throw new AssertionError(ex);
+        }
+        try {
+            transport.send(frame);
+        } catch (IOException | RuntimeException ex) {
+            EventBus.internalLogger.log(Level.WARNING, "Failed to request event types from another server", ex);
+        }
+    }
+
+    private void decode(Schema<?> schema, byte[] payload) {
+        Event event;
+        try {
+            event = schema.codec.decode(new DataInputStream(new ByteArrayInputStream(payload)));
+        } catch (IOException | RuntimeException ex) {
+            EventBus.internalLogger.log(Level.WARNING, "Skipping " + schema.type.getName() + " that could not be decoded", ex);
+            return;
+        }
+        if (event != null) {
+            emit(event);
+        }
+    }
+
+    private void emit(Event event) {
+        Runnable task = () -> {
+            remoteEvent.set(event);
+            try {
+                plugin.getServer().getPluginManager().callEvent(event);
+            } finally {
+                remoteEvent.remove();
+            }
+        };
+
+        Server server = plugin.getServer();
+        if (event.isAsynchronous() == server.isPrimaryThread()) {
+            if (event.isAsynchronous()) {
+                server.getScheduler().runTaskAsynchronously(plugin, task);
+            } else {
+                server.getScheduler().runTask(plugin, task);
+            }
+        } else {
+            task.run();
+        }
+    }
+
+    private static void writeVarInt(DataOutput output, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            output.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.writeByte(value);
+    }
+
+    private static int readVarInt(DataInput input) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = input.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("VarInt is too big");
+    }
+
+    private static final class Schema<T extends Event> {
+        private final int id;
+        private final Class<T> type;
+        private final EventCodec<T> codec;
+
+        private long announced = -1L;
+
+        private Schema(int id, Class<T> type, EventCodec<T> codec) {
+            this.id = id;
+            this.type = type;
+            this.codec = codec;
+        }
+    }
+
+    private static final class Peer {
+        private final Map<Integer, Schema<?>> schemas = new ConcurrentHashMap<>();
+        private final Map<Integer, Boolean> unbridged = new ConcurrentHashMap<>();
+
+        private volatile long lastSeen;
+        private volatile long requested;
+
+        private Peer(long now) {
+            this.lastSeen = now;
+            this.requested = now - REQUEST_INTERVAL;
+        }
+    }
+
+    private static final class Buffer extends ByteArrayOutputStream {
+        private final DataOutputStream data = new DataOutputStream(this);
+    }
+}
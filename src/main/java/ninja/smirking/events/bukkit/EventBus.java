@@ -0,0 +1,974 @@
+package ninja.smirking.events.bukkit;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventException;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.EventExecutor;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.RegisteredListener;
+
+/**
+ * Registers event handlers on behalf of a single {@link Plugin}.
+ * Each plugin that includes this library should use its own bus so that no state is shared between them,
+ * {@link Events} delegates to the bus given to {@link Events#init(Plugin)}.
+ *
+ * @author Connor Spencer Harries
+ * @version 1.0
+ * @since 1.0
+ */
+public final class EventBus {
+    static final Logger internalLogger = Logger.getLogger(EventBus.class.getCanonicalName());
+    private static final Class<?>[] INTERNAL_CLASSES = {
+            Events.class, EventBus.class, EventPipeline.class, EventAggregate.class, SubscriptionSet.class
+    };
+
+    private final Map<Class<? extends Event>, HandlerList> handlerLists = new ConcurrentHashMap<>();
+    private final Map<PipelineKey, EventPipeline<?>> pipelines = new ConcurrentHashMap<>();
+    private final Map<Class<?>, List<EventIndex<Object>>> eventIndexes = new ConcurrentHashMap<>();
+    private final Map<Class<? extends Event>, UnaryOperator<? extends Event>> snapshots = new ConcurrentHashMap<>();
+    private final Map<Listener, List<EventTopology.Probe>> probes = Collections.synchronizedMap(new WeakHashMap<>());
+    private final Plugin plugin;
+    private final EventClock clock;
+
+    private volatile boolean profiling;
+
+    /**
+     * Create a bus that registers handlers on behalf of the given plugin.
+     *
+     * @param plugin non-null plugin that owns every handler registered through this bus.
+     */
+    public EventBus(Plugin plugin) {
+        this(plugin, EventClock.SYSTEM);
+    }
+
+    /**
+     * Create a bus that registers handlers on behalf of the given plugin and reads the time from the given clock.
+     *
+     * @param plugin non-null plugin that owns every handler registered through this bus.
+     * @param clock  non-null clock used by timed and rate-limited handlers.
+     */
+    public EventBus(Plugin plugin, EventClock clock) {
+        this.plugin = Preconditions.checkNotNull(plugin, "plugin");
+        this.clock = Preconditions.checkNotNull(clock, "clock");
+    }
+
+    /**
+     * Get the plugin that owns every handler registered through this bus.
+     *
+     * @return non-null plugin.
+     */
+    public Plugin getPlugin() {
+        return plugin;
+    }
+
+    /**
+     * Get the clock used by timed and rate-limited handlers.
+     *
+     * @return non-null clock.
+     */
+    public EventClock getClock() {
+        return clock;
+    }
+
+    /**
+     * Enable or disable profiling. Whilst profiling is enabled every handler registered through this bus measures the
+     * time it spends handling events, and handlers registered in the meantime record the class that registered them.
+     *
+     * @param profiling whether handlers should be profiled.
+     * @see #topology(boolean)
+     */
+    public void setProfiling(boolean profiling) {
+        this.profiling = profiling;
+    }
+
+    /**
+     * Determine whether handlers are being profiled.
+     *
+     * @return {@code true} if profiling is enabled.
+     */
+    public boolean isProfiling() {
+        return profiling;
+    }
+
+    /**
+     * Resolve and bake the {@link HandlerList} of each event type, so that the first tick that fires each type does not
+     * have to. Registering another handler of the same type invalidates the baked {@link HandlerList} again, so call
+     * this at the end of {@code onEnable}, after every handler has been registered.
+     *
+     * @param eventTypes non-null event types.
+     */
+    @SafeVarargs
+    public final void warmUp(Class<? extends Event>... eventTypes) {
+        Preconditions.checkNotNull(eventTypes, "eventTypes");
+        for (Class<? extends Event> eventType : eventTypes) {
+            getHandlerList(eventType).bake();
+        }
+    }
+
+    /**
+     * Register a {@link Listener} which handles an event of the given type once before unregistering itself.
+     *
+     * @param eventType non-null event type.
+     * @param handler   non-null consumer that handles the event.
+     * @param <T>       event type.
+     * @return non-null Bukkit {@link Listener}.
+     */
+    public <T extends Event> Listener observe(Class<T> eventType, Consumer<? super T> handler) {
+        return observe(eventType, handler, EventPriority.NORMAL);
+    }
+
+    /**
+     * Register a {@link Listener} which handles an event of the given type once before unregistering itself.
+     *
+     * @param eventType non-null event type.
+     * @param handler   non-null consumer that handles the event.
+     * @param priority  handler priority
+     * @param <T>       event type.
+     * @return non-null Bukkit {@link Listener}.
+     */
+    public <T extends Event> Listener observe(Class<T> eventType, Consumer<? super T> handler, EventPriority priority) {
+        return observe(eventType, handler, priority, false);
+    }
+
+    /**
+     * Register a {@link Listener} which handles an event of the given type once before unregistering itself.
+     *
+     * @param eventType       non-null event type.
+     * @param handler         non-null consumer that handles the event.
+     * @param priority        handler priority
+     * @param ignoreCancelled whether the handler should be skipped for events that have already been cancelled.
+     * @param <T>             event type.
+     * @return non-null Bukkit {@link Listener}.
+     */
+    public <T extends Event> Listener observe(Class<T> eventType, Consumer<? super T> handler, EventPriority priority, boolean ignoreCancelled) {
+        return registerListener(eventType, EventTopology.Mode.ONCE, (listener, event) -> {
+            try {
+                safeInvoke(eventType, event, handler);
+            } finally {
+                event.getHandlers().unregister(listener);
+            }
+        }, priority, ignoreCancelled);
+    }
+
+    /**
+     * Register a {@link Listener} which handles an event of the given type multiple times.
+     * It is only unregistered when the plugin that owns this bus is disabled.
+     *
+     * @param eventType non-null event type.
+     * @param handler   non-null consumer that handles the event.
+     * @param <T>       event type.
+     * @return non-null Bukkit {@link Listener}.
+     */
+    public <T extends Event> Listener observeAll(Class<T> eventType, Consumer<? super T> handler) {
+        return observeAll(eventType, handler, EventPriority.NORMAL);
+    }
+
+    /**
+     * Register a {@link Listener} which handles an event of the given type multiple times.
+     * It is only unregistered when the plugin that owns this bus is disabled.
+     *
+     * @param eventType non-null event type.
+     * @param handler   non-null consumer that handles the event.
+     * @param priority  handler priority
+     * @param <T>       event type.
+     * @return non-null Bukkit {@link Listener}.
+     */
+    public <T extends Event> Listener observeAll(Class<T> eventType, Consumer<? super T> handler, EventPriority priority) {
+        return observeAll(eventType, handler, priority, false);
+    }
+
+    /**
+     * Register a {@link Listener} which handles an event of the given type multiple times.
+     * It is only unregistered when the plugin that owns this bus is disabled.
+     *
+     * @param eventType       non-null event type.
+     * @param handler         non-null consumer that handles the event.
+     * @param priority        handler priority
+     * @param ignoreCancelled whether the handler should be skipped for events that have already been cancelled.
+     * @param <T>             event type.
+     * @return non-null Bukkit {@link Listener}.
+     */
+    public <T extends Event> Listener observeAll(Class<T> eventType, Consumer<? super T> handler, EventPriority priority, boolean ignoreCancelled) {
+        return registerListener(eventType, EventTopology.Mode.ALL, (listener, event) -> safeInvoke(eventType, event, handler), priority, ignoreCancelled);
+    }
+
+    /**
+     * Register a {@link Listener} which handles an event of the given type multiple times.
+     * A {@link Predicate} controls which events are passed to the handler.
+     *
+     * @param eventType non-null event type.
+     * @param handler   non-null consumer that handles the event.
+     * @param test      non-null predicate that determines whether the event should be passed to the handler.
+     * @param <T>       event type.
+     * @return non-null Bukkit {@link Listener}.
+     */
+    public <T extends Event> Listener observeIf(Class<T> eventType, Consumer<? super T> handler, Predicate<T> test) {
+        return observeIf(eventType, handler, test, EventPriority.NORMAL);
+    }
+
+    /**
+     * Register a {@link Listener} which handles an event of the given type multiple times.
+     * A {@link Predicate} controls which events are passed to the handler.
+     *
+     * @param eventType non-null event type.
+     * @param handler   non-null consumer that handles the event.
+     * @param test      non-null predicate that determines whether the event should be passed to the handler.
+     * @param priority  handler priority
+     * @param <T>       event type.
+     * @return non-null Bukkit {@link Listener}.
+     */
+    public <T extends Event> Listener observeIf(Class<T> eventType, Consumer<? super T> handler, Predicate<T> test, EventPriority priority) {
+        return observeIf(eventType, handler, test, priority, false);
+    }
+
+    /**
+     * Register a {@link Listener} which handles an event of the given type multiple times.
+     * A {@link Predicate} controls which events are passed to the handler.
+     *
+     * @param eventType       non-null event type.
+     * @param handler         non-null consumer that handles the event.
+     * @param test            non-null predicate that determines whether the event should be passed to the handler.
+     * @param priority        handler priority
+     * @param ignoreCancelled whether the handler should be skipped for events that have already been cancelled.
+     * @param <T>             event type.
+     * @return non-null Bukkit {@link Listener}.
+     */
+    public <T extends Event> Listener observeIf(Class<T> eventType, Consumer<? super T> handler, Predicate<T> test, EventPriority priority, boolean ignoreCancelled) {
+        return registerListener(eventType, EventTopology.Mode.IF, (listener, event) -> {
+            if (test.test(event)) {
+                safeInvoke(eventType, event, handler);
+            }
+        }, priority, ignoreCancelled);
+    }
+
+    /**
+     * Register a {@link Listener} which handles an event of the given type multiple times.
+     * It is unregistered after the given duration has passed.
+     *
+     * @param eventType non-null event type.
+     * @param handler   non-null consumer that handles the event.
+     * @param duration  how long it should be before the {@link Listener} unregisters itself.
+     * @param unit      the unit that the {@code duration} was given in.
+     * @param <T>       event type.
+     * @return non-null Bukkit {@link Listener}.
+     */
+    public <T extends Event> Listener observeFor(Class<T> eventType, Consumer<? super T> handler, long duration, TimeUnit unit) {
+        return observeFor(eventType, (event, time) -> handler.accept(event), duration, unit, EventPriority.NORMAL);
+    }
+
+    /**
+     * Register a {@link Listener} which handles an event of the given type multiple times.
+     * It is unregistered after the given duration has passed.
+     *
+     * @param eventType non-null event type.
+     * @param handler   non-null consumer that handles the event and informs the handler of how many milliseconds are left before the {@link Listener} unregisters itself.
+     * @param duration  how long it should be before the {@link Listener} unregisters itself.
+     * @param unit      the unit that the {@code duration} was given in.
+     * @param <T>       event type.
+     * @return non-null Bukkit {@link Listener}.
+     */
+    public <T extends Event> Listener observeFor(Class<T> eventType, BiConsumer<? super T, Long> handler, long duration, TimeUnit unit) {
+        return observeFor(eventType, handler, duration, unit, EventPriority.NORMAL);
+    }
+
+    /**
+     * Register a {@link Listener} which handles an event of the given type multiple times.
+     * It is unregistered after the given duration has passed.
+     *
+     * @param eventType non-null event type.
+     * @param handler   non-null consumer that handles the event and informs the handler of how many milliseconds are left before the {@link Listener} unregisters itself.
+     * @param duration  how long it should be before the {@link Listener} unregisters itself.
+     * @param unit      the unit that the {@code duration} was given in.
+     * @param priority  handler priority
+     * @param <T>       event type.
+     * @return non-null Bukkit {@link Listener}.
+     */
+    public <T extends Event> Listener observeFor(Class<T> eventType, BiConsumer<? super T, Long> handler, long duration, TimeUnit unit, EventPriority priority) {
+        return observeFor(eventType, handler, duration, unit, priority, false);
+    }
+
+    /**
+     * Register a {@link Listener} which handles an event of the given type multiple times.
+     * It is unregistered after the given duration has passed.
+     *
+     * @param eventType       non-null event type.
+     * @param handler         non-null consumer that handles the event and informs the handler of how many milliseconds are left before the {@link Listener} unregisters itself.
+     * @param duration        how long it should be before the {@link Listener} unregisters itself.
+     * @param unit            the unit that the {@code duration} was given in.
+     * @param priority        handler priority
+     * @param ignoreCancelled whether the handler should be skipped for events that have already been cancelled.
+     * @param <T>             event type.
+     * @return non-null Bukkit {@link Listener}.
+     */
+    public <T extends Event> Listener observeFor(Class<T> eventType, BiConsumer<? super T, Long> handler, long duration, TimeUnit unit, EventPriority priority, boolean ignoreCancelled) {
+        TimedListener timed = new TimedListener(this, clock.nanoTime() + unit.toNanos(duration));
+        register(eventType, timed, EventTopology.Mode.FOR, (listener, event) -> {
+            if (timed.expired) {
+                return;
+            }
+            long now = clock.nanoTime();
+            long remaining = timed.deadline - now;
+            if (remaining < 0L) {
+                expire(getHandlerList(eventType), now);
+            } else {
+                safeInvoke(eventType, event, e -> handler.accept(e, TimeUnit.NANOSECONDS.toMillis(remaining)));
+            }
+        }, priority, ignoreCancelled);
+        return timed;
+    }
+
+    /**
+     * Set the function that copies events of the given type before they are handed to another thread by
+     * {@link #observeOn}, {@link #observeRouted} or an {@link EventRing}. The copy is taken whilst the event is being
+     * fired, so changes made to the event afterwards, for example by handlers at a later priority, are not seen by the
+     * handlers running on the other thread. Events of types without a copier are handed over as they are.
+     *
+     * @param eventType non-null event type.
+     * @param copier    function that returns a detached copy of an event, or {@code null} to stop copying the type.
+     * @param <T>       event type.
+     */
+    public <T extends Event> void registerSnapshot(Class<T> eventType, UnaryOperator<T> copier) {
+        Preconditions.checkNotNull(eventType, "eventType");
+        if (copier == null) {
+            snapshots.remove(eventType);
+        } else {
+            snapshots.put(eventType, copier);
+        }
+    }
+
+    /**
+     * Register a {@link Listener} which hands every event of the given type to an {@link Executor}.
+     * The handler runs after the event has been fired, so it should only read from the event.
+     *
+     * @param eventType non-null event type.
+     * @param handler   non-null consumer that handles the event.
+     * @param executor  non-null executor that runs the handler.
+     * @param <T>       event type.
+     * @return non-null Bukkit {@link Listener}.
+     */
+    public <T extends Event> Listener observeOn(Class<T> eventType, Consumer<? super T> handler, Executor executor) {
+        return observeOn(eventType, handler, executor, EventPriority.NORMAL, false);
+    }
+
+    /**
+     * Register a {@link Listener} which hands every event of the given type to an {@link Executor}.
+     * The handler runs after the event has been fired, so it should only read from the event.
+     *
+     * @param eventType       non-null event type.
+     * @param handler         non-null consumer that handles the event.
+     * @param executor        non-null executor that runs the handler.
+     * @param priority        handler priority
+     * @param ignoreCancelled whether the handler should be skipped for events that have already been cancelled.
+     * @param <T>             event type.
+     * @return non-null Bukkit {@link Listener}.
+     */
+    public <T extends Event> Listener observeOn(Class<T> eventType, Consumer<? super T> handler, Executor executor, EventPriority priority, boolean ignoreCancelled) {
+        Preconditions.checkNotNull(executor, "executor");
+        return observeRouted(eventType, handler, event -> executor, priority, ignoreCancelled);
+    }
+
+    /**
+     * Register a {@link Listener} which hands every event of the given type to the {@link Executor} chosen by a router,
+     * such as the executor that owns the world or region of the event. {@link AffinityExecutor#route(Function)}
+     * creates a router that keeps the events of each key in order.
+     * The handler runs after the event has been fired, so it should only read from the event.
+     *
+     * @param eventType non-null event type.
+     * @param handler   non-null consumer that handles the event.
+     * @param router    non-null function that picks the executor for an event, the handler is run inline if it returns {@code null}.
+     * @param <T>       event type.
+     * @return non-null Bukkit {@link Listener}.
+     */
+    public <T extends Event> Listener observeRouted(Class<T> eventType, Consumer<? super T> handler, Function<? super T, ? extends Executor> router) {
+        return observeRouted(eventType, handler, router, EventPriority.NORMAL, false);
+    }
+
+    /**
+     * Register a {@link Listener} which hands every event of the given type to the {@link Executor} chosen by a router,
+     * such as the executor that owns the world or region of the event. {@link AffinityExecutor#route(Function)}
+     * creates a router that keeps the events of each key in order.
+     * The handler runs after the event has been fired, so it should only read from the event.
+     *
+     * @param eventType       non-null event type.
+     * @param handler         non-null consumer that handles the event.
+     * @param router          non-null function that picks the executor for an event, the handler is run inline if it returns {@code null}.
+     * @param priority        handler priority
+     * @param ignoreCancelled whether the handler should be skipped for events that have already been cancelled.
+     * @param <T>             event type.
+     * @return non-null Bukkit {@link Listener}.
+     */
+    public <T extends Event> Listener observeRouted(Class<T> eventType, Consumer<? super T> handler, Function<? super T, ? extends Executor> router, EventPriority priority, boolean ignoreCancelled) {
+        Preconditions.checkNotNull(handler, "handler");
+        Preconditions.checkNotNull(router, "router");
+        // Routing and submission failures, such as a rejected task, are logged like handler failures
+        return registerListener(eventType, EventTopology.Mode.ROUTED, (listener, event) -> safeInvoke(eventType, event, routed -> {
+            Executor executor = router.apply(routed);
+            if (executor == null) {
+                handler.accept(routed);
+            } else {
+                T snapshot = snapshot(eventType, routed);
+                if (snapshot != null) {
+                    executor.execute(() -> safeInvoke(eventType, snapshot, handler));
+                }
+            }
+        }), priority, ignoreCancelled);
+    }
+
+    /**
+     * Register a {@link Listener} which copies the fields it needs from every event of the given type into a snapshot
+     * and hands the snapshot to an {@link Executor}.
+     * The projection runs whilst the event is being fired, so the handler can safely run later on another thread
+     * without keeping the event, or heavy objects such as players and worlds, reachable.
+     *
+     * @param eventType  non-null event type.
+     * @param projection non-null function that copies the fields of an event into a small immutable object, events that are projected to {@code null} are skipped.
+     * @param handler    non-null consumer that handles the snapshot.
+     * @param executor   non-null executor that runs the handler.
+     * @param <T>        event type.
+     * @param <S>        snapshot type.
+     * @return non-null Bukkit {@link Listener}.
+     */
+    public <T extends Event, S> Listener observeSnapshot(Class<T> eventType, Function<? super T, ? extends S> projection, Consumer<? super S> handler, Executor executor) {
+        return observeSnapshot(eventType, projection, handler, executor, EventPriority.MONITOR, true);
+    }
+
+    /**
+     * Register a {@link Listener} which copies the fields it needs from every event of the given type into a snapshot
+     * and hands the snapshot to an {@link Executor}.
+     * The projection runs whilst the event is being fired, so the handler can safely run later on another thread
+     * without keeping the event, or heavy objects such as players and worlds, reachable.
+     *
+     * @param eventType       non-null event type.
+     * @param projection      non-null function that copies the fields of an event into a small immutable object, events that are projected to {@code null} are skipped.
+     * @param handler         non-null consumer that handles the snapshot.
+     * @param executor        non-null executor that runs the handler.
+     * @param priority        handler priority
+     * @param ignoreCancelled whether the handler should be skipped for events that have already been cancelled.
+     * @param <T>             event type.
+     * @param <S>             snapshot type.
+     * @return non-null Bukkit {@link Listener}.
+     */
+    public <T extends Event, S> Listener observeSnapshot(Class<T> eventType, Function<? super T, ? extends S> projection, Consumer<? super S> handler, Executor executor, EventPriority priority, boolean ignoreCancelled) {
+        Preconditions.checkNotNull(projection, "projection");
+        Preconditions.checkNotNull(handler, "handler");
+        Preconditions.checkNotNull(executor, "executor");
+        return registerListener(eventType, EventTopology.Mode.SNAPSHOT, (listener, event) -> safeInvoke(eventType, event, e -> {
+            S snapshot = projection.apply(e);
+            if (snapshot != null) {
+                executor.execute(() -> safeInvoke(eventType, snapshot, handler));
+            }
+        }), priority, ignoreCancelled);
+    }
+
+    /**
+     * Handle at most {@code permitsPerSecond} events of the given type for each key, which replaces hand-written cooldown maps.
+     * Events that arrive whilst their key is limited are not passed to the handler.
+     *
+     * @param eventType        non-null event type.
+     * @param keyExtractor     non-null function that returns the key to limit an event by, events with a {@code null} key are skipped.
+     * @param permitsPerSecond number of events that each key may pass to the handler every second.
+     * @param handler          non-null consumer that handles the event.
+     * @param <T>              event type.
+     * @param <K>              key type.
+     * @return non-null Bukkit {@link Listener}, which can be used to unregister the handler.
+     */
+    public <T extends Event, K> Listener observeRateLimited(Class<T> eventType, Function<? super T, ? extends K> keyExtractor, double permitsPerSecond, Consumer<? super T> handler) {
+        return observeRateLimited(eventType, keyExtractor, permitsPerSecond, 1, handler, EventPriority.NORMAL, false);
+    }
+
+    /**
+     * Handle at most {@code permitsPerSecond} events of the given type for each key, which replaces hand-written cooldown maps.
+     * Events that arrive whilst their key is limited are not passed to the handler.
+     *
+     * @param eventType        non-null event type.
+     * @param keyExtractor     non-null function that returns the key to limit an event by, events with a {@code null} key are skipped.
+     * @param permitsPerSecond number of events that each key may pass to the handler every second.
+     * @param burst            number of events that a key that has been idle may pass to the handler at once.
+     * @param handler          non-null consumer that handles the event.
+     * @param priority         handler priority
+     * @param ignoreCancelled  whether events that have already been cancelled should be skipped without using a permit.
+     * @param <T>              event type.
+     * @param <K>              key type.
+     * @return non-null Bukkit {@link Listener}, which can be used to unregister the handler.
+     */
+    public <T extends Event, K> Listener observeRateLimited(Class<T> eventType, Function<? super T, ? extends K> keyExtractor, double permitsPerSecond, int burst, Consumer<? super T> handler, EventPriority priority, boolean ignoreCancelled) {
+        Preconditions.checkNotNull(keyExtractor, "keyExtractor");
+        Preconditions.checkNotNull(handler, "handler");
+        Preconditions.checkArgument(permitsPerSecond > 0D, "permitsPerSecond must be positive");
+        Preconditions.checkArgument(burst > 0, "burst must be positive");
+        KeyedRateLimiter<K> limiter = new KeyedRateLimiter<>(permitsPerSecond, burst, clock.nanoTime());
+        return registerListener(eventType, EventTopology.Mode.RATE_LIMITED, (listener, event) -> safeInvoke(eventType, event, e -> {
+            K key = keyExtractor.apply(e);
+            if (key != null && limiter.tryAcquire(key, clock.nanoTime())) {
+                handler.accept(e);
+            }
+        }), priority, ignoreCancelled);
+    }
+
+    /**
+     * Count the events of the given type that have not been cancelled by the time they reach {@link EventPriority#MONITOR}.
+     *
+     * @param eventType    non-null event type.
+     * @param keyExtractor non-null function that returns the key to count an event against, events with a {@code null} key are skipped.
+     * @param <T>          event type.
+     * @param <K>          key type.
+     * @return non-null aggregate containing a counter for each key.
+     */
+    public <T extends Event, K> EventAggregate<K> count(Class<T> eventType, Function<? super T, ? extends K> keyExtractor) {
+        return sum(eventType, keyExtractor, event -> 1L, EventPriority.MONITOR, true);
+    }
+
+    /**
+     * Sum a value from the events of the given type that have not been cancelled by the time they reach {@link EventPriority#MONITOR}.
+     *
+     * @param eventType      non-null event type.
+     * @param keyExtractor   non-null function that returns the key to add the value to, events with a {@code null} key are skipped.
+     * @param valueExtractor non-null function that returns the value of an event.
+     * @param <T>            event type.
+     * @param <K>            key type.
+     * @return non-null aggregate containing a total for each key.
+     */
+    public <T extends Event, K> EventAggregate<K> sum(Class<T> eventType, Function<? super T, ? extends K> keyExtractor, ToLongFunction<? super T> valueExtractor) {
+        return sum(eventType, keyExtractor, valueExtractor, EventPriority.MONITOR, true);
+    }
+
+    /**
+     * Sum a value from the events of the given type.
+     *
+     * @param eventType       non-null event type.
+     * @param keyExtractor    non-null function that returns the key to add the value to, events with a {@code null} key are skipped.
+     * @param valueExtractor  non-null function that returns the value of an event.
+     * @param priority        handler priority
+     * @param ignoreCancelled whether events that have already been cancelled should be skipped.
+     * @param <T>             event type.
+     * @param <K>             key type.
+     * @return non-null aggregate containing a total for each key.
+     */
+    public <T extends Event, K> EventAggregate<K> sum(Class<T> eventType, Function<? super T, ? extends K> keyExtractor, ToLongFunction<? super T> valueExtractor, EventPriority priority, boolean ignoreCancelled) {
+        Preconditions.checkNotNull(keyExtractor, "keyExtractor");
+        Preconditions.checkNotNull(valueExtractor, "valueExtractor");
+        EventAggregate<K> aggregate = new EventAggregate<>(this, eventType);
+        register(eventType, aggregate, EventTopology.Mode.AGGREGATE, (listener, event) -> safeInvoke(eventType, event, e -> aggregate.add(keyExtractor.apply(e), valueExtractor.applyAsLong(e))), priority, ignoreCancelled);
+        return aggregate;
+    }
+
+    /**
+     * Register every {@link Observe} method of an object, including those declared by its superclasses.
+     * The methods are registered through the {@link EventIndex} generated at compile time by {@link ObserveProcessor},
+     * so they are called directly rather than through reflection.
+     *
+     * @param target non-null object that declares annotated methods.
+     * @return non-null list containing a Bukkit {@link Listener} for each handler.
+     * @throws IllegalArgumentException if neither the class of the object nor its superclasses have a generated index.
+     */
+    public List<Listener> registerAll(Object target) {
+        Preconditions.checkNotNull(target, "target");
+        List<EventIndex<Object>> indexes = eventIndexes.computeIfAbsent(target.getClass(), EventBus::resolveIndexes);
+        Preconditions.checkArgument(!indexes.isEmpty(), "%s has no generated event index", target.getClass().getName());
+
+        // Indexes are ordered from the class of the object upwards, so an overriding handler is registered in place of the one it overrides
+        Set<String> registered = new HashSet<>();
+        List<Listener> listeners = Lists.newArrayList();
+        for (EventIndex<Object> index : indexes) {
+            listeners.addAll(index.register(this, target, registered));
+        }
+        return listeners;
+    }
+
+    /**
+     * Take a snapshot of every handler attached to the event types used by this bus, including listeners that were
+     * registered with Bukkit directly. Only the {@link HandlerList} of each type is copied, so this is cheap enough to call
+     * during a tick, formatting the snapshot can be left to another thread.
+     *
+     * @param reset whether the profiled cost of each handler should be reset, so the next snapshot only covers the time in between.
+     * @return non-null snapshot.
+     */
+    public EventTopology topology(boolean reset) {
+        Map<Listener, List<EventTopology.Probe>> known;
+        synchronized (probes) {
+            known = new HashMap<>(probes);
+        }
+
+        Map<HandlerList, Class<? extends Event>> lists = new IdentityHashMap<>();
+        for (Class<? extends Event> eventType : handlerLists.keySet()) {
+            lists.putIfAbsent(getHandlerList(eventType), eventType);
+        }
+        for (List<EventTopology.Probe> listenerProbes : known.values()) {
+            for (EventTopology.Probe probe : listenerProbes) {
+                lists.putIfAbsent(getHandlerList(probe.getEventType()), probe.getEventType());
+            }
+        }
+
+        List<EventTopology.Subscriber> subscribers = Lists.newArrayList();
+        for (Map.Entry<HandlerList, Class<? extends Event>> entry : lists.entrySet()) {
+            for (RegisteredListener registered : entry.getKey().getRegisteredListeners()) {
+                String owner = registered.getPlugin().getName();
+                EventTopology.Probe probe = findProbe(known.get(registered.getListener()), entry.getKey(), registered.getPriority());
+                if (probe == null) {
+                    subscribers.add(new EventTopology.Subscriber(entry.getValue(), registered.getPriority(), EventTopology.Mode.LISTENER, owner,
+                            registered.getListener().getClass().getName(), registered.isIgnoringCancelled(), 0L, 0L));
+                } else {
+                    subscribers.add(probe.capture(owner, registered.isIgnoringCancelled(), reset));
+                }
+            }
+        }
+        return new EventTopology(System.currentTimeMillis(), subscribers);
+    }
+
+    /**
+     * Take a snapshot with {@link #topology(boolean)} and write it to a file as JSON on another thread.
+     *
+     * @param file non-null file to write to, its parent directories are created if they do not exist.
+     * @return non-null future that completes with the file once it has been written.
+     */
+    public CompletableFuture<File> writeTopology(File file) {
+        Preconditions.checkNotNull(file, "file");
+        EventTopology topology = topology(false);
+        CompletableFuture<File> future = new CompletableFuture<>();
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
+            try {
+                File parent = file.getAbsoluteFile().getParentFile();
+                if (parent != null) {
+                    Files.createDirectories(parent.toPath());
+                }
+                Files.write(file.toPath(), topology.toJson().getBytes(StandardCharsets.UTF_8));
+                future.complete(file);
+            } catch (IOException | RuntimeException ex) {
+                future.completeExceptionally(ex);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Get the {@link EventPipeline} that handles events of the given type at the given priority.
+     * Every call with the same arguments returns the same pipeline, which is registered with Bukkit once.
+     *
+     * @param eventType       non-null event type.
+     * @param priority        non-null pipeline priority.
+     * @param ignoreCancelled whether the remaining stages should be skipped once the event has been cancelled.
+     * @param <T>             event type.
+     * @return non-null pipeline.
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Event> EventPipeline<T> pipeline(Class<T> eventType, EventPriority priority, boolean ignoreCancelled) {
+        Preconditions.checkNotNull(eventType, "eventType");
+        Preconditions.checkNotNull(priority, "priority");
+        PipelineKey key = new PipelineKey(eventType, priority, ignoreCancelled);
+        return (EventPipeline<T>) pipelines.computeIfAbsent(key, k -> new EventPipeline<>(this, eventType, priority, ignoreCancelled));
+    }
+
+    /**
+     * Create an empty {@link SubscriptionSet}, whose handlers can be replaced in a single step when a feature reloads.
+     *
+     * @return non-null subscription set.
+     */
+    public SubscriptionSet subscriptionSet() {
+        return new SubscriptionSet(this);
+    }
+
+    /**
+     * Describe an {@link EventRing}, which hands events of the given type to a chain of stages on their own threads
+     * through a ring of preallocated slots. The ring is registered with Bukkit once {@link EventRing.Builder#start()} is called.
+     *
+     * @param eventType non-null event type.
+     * @param <T>       event type.
+     * @return non-null builder.
+     */
+    public <T extends Event> EventRing.Builder<T> ring(Class<T> eventType) {
+        return new EventRing.Builder<>(this, eventType);
+    }
+
+    /**
+     * Create an {@link EventDispatcher} for events of the given type, which switches between a plain loop, an index of
+     * keyed handlers and fanning out parallel handlers depending on the handlers it has. Parallel handlers are treated
+     * as asynchronous from the first event, whether or not they have been fanned out yet, so the executor they may run
+     * on has to be chosen up front.
+     *
+     * @param eventType       non-null event type.
+     * @param keyExtractor    non-null function that returns the key of an event, which is matched against keyed handlers.
+     * @param priority        non-null dispatcher priority.
+     * @param ignoreCancelled whether the remaining handlers should be skipped once the event has been cancelled.
+     * @param executor        non-null executor that parallel handlers are fanned out across.
+     * @param <T>             event type.
+     * @param <K>             key type.
+     * @return non-null dispatcher, which is registered with Bukkit once its first handler is added.
+     */
+    public <T extends Event, K> EventDispatcher<T, K> dispatcher(Class<T> eventType, Function<? super T, ? extends K> keyExtractor, EventPriority priority, boolean ignoreCancelled, Executor executor) {
+        return new EventDispatcher<>(this, eventType, keyExtractor, priority, ignoreCancelled, executor);
+    }
+
+    void removePipeline(EventPipeline<?> pipeline) {
+        pipelines.remove(new PipelineKey(pipeline.getEventType(), pipeline.getPriority(), pipeline.isIgnoringCancelled()), pipeline);
+    }
+
+    private <T extends Event> Listener registerListener(Class<T> eventType, EventTopology.Mode mode, BiConsumer<Listener, ? super T> handler, EventPriority priority, boolean ignoreCancelled) {
+        Listener listener = new Listener() {
+        };
+        register(eventType, listener, mode, handler, priority, ignoreCancelled);
+        return listener;
+    }
+
+    <T extends Event> void register(Class<T> eventType, Listener listener, EventTopology.Mode mode, BiConsumer<Listener, ? super T> handler, EventPriority priority, boolean ignoreCancelled) {
+        Preconditions.checkNotNull(eventType, "eventType");
+        Preconditions.checkNotNull(handler, "handler");
+        Preconditions.checkNotNull(priority, "priority");
+
+        HandlerList handlerList = getHandlerList(eventType);
+        ProbedExecutor<T> executor = new ProbedExecutor<>(eventType, priority, mode, profiling ? findOrigin() : null, handler);
+        List<EventTopology.Probe> listenerProbes = probes.computeIfAbsent(listener, key -> new CopyOnWriteArrayList<>());
+        // A listener that is registered again replaces its old probe, which belonged to a registration that is gone
+        listenerProbes.removeIf(probe -> probe.getPriority() == priority && getHandlerList(probe.getEventType()) == handlerList);
+        listenerProbes.add(executor);
+        plugin.getServer().getPluginManager().registerEvent(eventType, listener, priority, executor, plugin, ignoreCancelled);
+    }
+
+    /**
+     * Unregister every timed listener of this bus that has expired from a handler list together, so that listeners
+     * which expire at the same time are found with a single scan instead of each waiting for its next event.
+     */
+    private void expire(HandlerList handlers, long now) {
+        synchronized (handlers) {
+            List<RegisteredListener> expired = Lists.newArrayList();
+            for (RegisteredListener registered : handlers.getRegisteredListeners()) {
+                Listener listener = registered.getListener();
+                if (listener instanceof TimedListener && ((TimedListener) listener).expire(this, now)) {
+                    expired.add(registered);
+                }
+            }
+            expired.forEach(handlers::unregister);
+        }
+    }
+
+    /**
+     * Copy an event with the copier registered for its type. A copier that throws or returns {@code null} is logged
+     * like a failing handler, and {@code null} is returned so that the caller skips the handover.
+     */
+    @SuppressWarnings("unchecked")
+    <T extends Event> T snapshot(Class<T> eventType, T event) {
+        UnaryOperator<T> copier = (UnaryOperator<T>) snapshots.get(eventType);
+        if (copier == null) {
+            return event;
+        }
+        try {
+            return Preconditions.checkNotNull(copier.apply(event), "snapshot of " + eventType.getName());
+        } catch (Throwable cause) {
+            logFailure(eventType, cause);
+            return null;
+        }
+    }
+
+    static <T> void safeInvoke(Class<? extends Event> type, T event, Consumer<? super T> handler) {
+        Preconditions.checkNotNull(handler, "handler cannot be null");
+        Preconditions.checkNotNull(event, "event cannot be null");
+        Preconditions.checkNotNull(type, "type cannot be null");
+        try {
+            handler.accept(event);
+        } catch (Throwable cause) {
+            logFailure(type, cause);
+        }
+    }
+
+    static void logFailure(Class<? extends Event> type, Throwable cause) {
+        trimStackTrace(cause);
+        internalLogger.log(Level.INFO, "An unhandled exception was intercepted whilst handling {0}: \n{1}", new Object[]{
+                type.getName(), Throwables.getStackTraceAsString(cause)
+        });
+    }
+
+    HandlerList getHandlerList(Class<? extends Event> eventType) {
+        Preconditions.checkNotNull(eventType, "eventType");
+        return handlerLists.computeIfAbsent(eventType, EventBus::resolveHandlerList);
+    }
+
+    private static HandlerList resolveHandlerList(Class<? extends Event> eventType) {
+        for (Class<?> clazz = eventType; clazz != null && clazz != Event.class && Event.class.isAssignableFrom(clazz); clazz = clazz.getSuperclass()) {
+            try {
+                Method method = clazz.getDeclaredMethod("getHandlerList");
+                method.setAccessible(true);
+                return (HandlerList) method.invoke(null);
+            } catch (NoSuchMethodException ignored) {
+                // Keep walking up the hierarchy, the same as Bukkit does when registering a listener
+            } catch (ReflectiveOperationException | ClassCastException ex) {
+                throw new IllegalArgumentException("Unable to get handler list for event " + eventType.getName(), ex);
+            }
+        }
+        throw new IllegalArgumentException("Unable to find handler list for event " + eventType.getName());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<EventIndex<Object>> resolveIndexes(Class<?> type) {
+        List<EventIndex<Object>> indexes = Lists.newArrayList();
+        for (Class<?> clazz = type; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+            try {
+                Class<?> index = Class.forName(indexName(clazz), true, clazz.getClassLoader());
+                indexes.add((EventIndex<Object>) index.getConstructor().newInstance());
+            } catch (ClassNotFoundException ignored) {
+                // Only classes that declare @Observe methods have an index
+            } catch (ReflectiveOperationException | ClassCastException ex) {
+                throw new IllegalArgumentException("Unable to create event index for " + clazz.getName(), ex);
+            }
+        }
+        return indexes;
+    }
+
+    private static String indexName(Class<?> type) {
+        return type.getName() + EventIndex.SUFFIX;
+    }
+
+    private EventTopology.Probe findProbe(List<EventTopology.Probe> candidates, HandlerList handlerList, EventPriority priority) {
+        if (candidates != null) {
+            for (EventTopology.Probe probe : candidates) {
+                if (probe.getPriority() == priority && getHandlerList(probe.getEventType()) == handlerList) {
+                    return probe;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String findOrigin() {
+        for (StackTraceElement element : new Throwable().getStackTrace()) {
+            String className = element.getClassName();
+            boolean internal = false;
+            for (Class<?> clazz : INTERNAL_CLASSES) {
+                if (className.equals(clazz.getName()) || className.startsWith(clazz.getName() + '$')) {
+                    internal = true;
+                    break;
+                }
+            }
+            if (!internal) {
+                return className;
+            }
+        }
+        return null;
+    }
+
+    private static void trimStackTrace(Throwable throwable) {
+        List<StackTraceElement> elements = Lists.newArrayList(throwable.getStackTrace());
+        for (Iterator<StackTraceElement> iterator = elements.iterator(); iterator.hasNext(); ) {
+            StackTraceElement element = iterator.next();
+            try {
+                Class clazz = Class.forName(element.getClassName(), false, Thread.currentThread().getContextClassLoader());
+                if (clazz == Events.class || clazz == EventBus.class || clazz == EventPipeline.class || (clazz.isAnonymousClass() && clazz.getEnclosingClass() == EventBus.class)) {
+                    iterator.remove();
+                }
+            } catch (ClassNotFoundException ignored) {
+                // $COVERAGE-IGNORE$
+            }
+        }
+        throwable.setStackTrace(elements.toArray(new StackTraceElement[elements.size()]));
+    }
+
+    /**
+     * A listener registered by {@link #observeFor} that knows when it expires, so that every expired listener of a
+     * handler list can be found in a single pass.
+     */
+    private static final class TimedListener implements Listener {
+        private final EventBus bus;
+        private final long deadline;
+        private volatile boolean expired;
+
+        private TimedListener(EventBus bus, long deadline) {
+            this.bus = bus;
+            this.deadline = deadline;
+        }
+
+        private boolean expire(EventBus owner, long now) {
+            if (owner != bus || expired || now - deadline <= 0L) {
+                return false;
+            }
+            expired = true;
+            return true;
+        }
+    }
+
+    private final class ProbedExecutor<T extends Event> extends EventTopology.Probe implements EventExecutor {
+        private final Class<T> eventType;
+        private final BiConsumer<Listener, ? super T> handler;
+
+        private ProbedExecutor(Class<T> eventType, EventPriority priority, EventTopology.Mode mode, String origin, BiConsumer<Listener, ? super T> handler) {
+            super(eventType, priority, mode, origin);
+            this.eventType = eventType;
+            this.handler = handler;
+        }
+
+        @Override
+        public void execute(Listener listener, Event event) throws EventException {
+            if (event.getClass() == eventType) {
+                if (profiling) {
+                    long started = System.nanoTime();
+                    try {
+                        handler.accept(listener, eventType.cast(event));
+                    } finally {
+                        record(System.nanoTime() - started);
+                    }
+                } else {
+                    handler.accept(listener, eventType.cast(event));
+                }
+            }
+        }
+    }
+
+    private static final class PipelineKey {
+        private final Class<? extends Event> eventType;
+        private final EventPriority priority;
+        private final boolean ignoreCancelled;
+
+        private PipelineKey(Class<? extends Event> eventType, EventPriority priority, boolean ignoreCancelled) {
+            this.eventType = eventType;
+            this.priority = priority;
+            this.ignoreCancelled = ignoreCancelled;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof PipelineKey)) {
+                return false;
+            }
+            PipelineKey other = (PipelineKey) obj;
+            return eventType == other.eventType && priority == other.priority && ignoreCancelled == other.ignoreCancelled;
+        }
+
+        @Override
+        public int hashCode() {
+            return (eventType.hashCode() * 31 + priority.hashCode()) * 2 + (ignoreCancelled ? 1 : 0);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package ninja.smirking.events.bukkit;
+
+/**
+ * The source of time used by an {@link EventBus} for timed and rate-limited handlers.
+ * Buses use {@link #SYSTEM} unless they are given another clock, tests and benchmarks can use a {@link VirtualClock}
+ * so that timed behaviour does not depend on the wall clock.
+ *
+ * @author Connor Spencer Harries
+ * @version 1.0
+ * @since 1.0
+ */
+@FunctionalInterface
+public interface EventClock {
+    /**
+     * Clock backed by {@link System#nanoTime()}.
+     */
+    EventClock SYSTEM = System::nanoTime;
+
+    /**
+     * Get the current time of this clock. Like {@link System#nanoTime()} the value is only meaningful when compared with
+     * another value from the same clock.
+     *
+     * @return current time in nanoseconds.
+     */
+    long nanoTime();
+}
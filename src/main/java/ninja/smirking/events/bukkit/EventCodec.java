@@ -0,0 +1,36 @@
+package ninja.smirking.events.bukkit;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.bukkit.event.Event;
+
+/**
+ * Converts an {@link Event} to and from the compact binary form used by an {@link EventBridge}.
+ * Implementations only write the fields that the receiving server needs to rebuild the event.
+ *
+ * @param <T> event type.
+ * @author Connor Spencer Harries
+ * @version 1.0
+ * @since 1.0
+ */
+public interface EventCodec<T extends Event> {
+    /**
+     * Write the fields of an event.
+     *
+     * @param event  non-null event being bridged.
+     * @param output non-null output that the fields should be written to.
+     * @throws IOException if the fields could not be written.
+     */
+    void encode(T event, DataOutput output) throws IOException;
+
+    /**
+     * Rebuild an event from the fields written by {@link #encode(Event, DataOutput)}.
+     *
+     * @param input non-null input that the fields should be read from.
+     * @return non-null event that will be fired on the receiving server.
+     * @throws IOException if the fields could not be read.
+     */
+    T decode(DataInput input) throws IOException;
+}
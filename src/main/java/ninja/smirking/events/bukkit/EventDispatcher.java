@@ -0,0 +1,407 @@
+package ninja.smirking.events.bukkit;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import com.google.common.base.Preconditions;
+import org.bukkit.event.Cancellable;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+
+/**
+ * Handlers for one event type that share a single Bukkit registration, and whose dispatch structure adapts to them.
+ * <p>
+ * With few handlers the dispatcher runs them in a plain loop. Once many handlers only want events with a particular
+ * key, such as the player that an event concerns, they are moved into an index so each event only reaches the handlers
+ * for its key. Handlers that were added with {@link #observeParallel(Consumer)} are asynchronous: they may run on a
+ * thread of the {@link Executor} after the event has been fired, and are handed the copy made by
+ * {@link EventBus#registerSnapshot} if the event type has one. They are sampled every so often, and only when together
+ * they take long enough are they actually fanned out, but running them inline until then is an optimisation that does
+ * not change what a handler may assume. A fanned out event is handed to the executor without waiting for it, so the
+ * thread that fired the event is never blocked, and {@link #whenParallelComplete(Consumer)} can be used to find out
+ * when its parallel handlers have finished.
+ * <p>
+ * Each change is made by building a new dispatch table and publishing it with a single volatile write, and the
+ * thresholds to switch back are lower than the thresholds to switch, so the dispatcher does not flip between tables.
+ * A dispatcher without parallel handlers does not collect any statistics.
+ * <p>
+ * Handlers may run in a different order once the table changes, so they should not depend on one another.
+ * Dispatchers are created by {@link EventBus#dispatcher(Class, Function, EventPriority, boolean, Executor)}.
+ *
+ * @param <T> event type.
+ * @param <K> key type.
+ * @author Connor Spencer Harries
+ * @version 1.0
+ * @since 1.0
+ */
+public final class EventDispatcher<T extends Event, K> implements Listener {
+    static final int INDEX_ENTER = 32;
+    static final int INDEX_EXIT = 8;
+    static final int FAN_OUT_MINIMUM = 4;
+    static final long FAN_OUT_ENTER = TimeUnit.MICROSECONDS.toNanos(100L);
+    static final long FAN_OUT_EXIT = TimeUnit.MICROSECONDS.toNanos(25L);
+    static final int SAMPLE_INTERVAL = 64;
+    static final int SAMPLE_WINDOW = 16;
+
+    private final List<Entry<T>> entries = new ArrayList<>();
+    private final EventBus bus;
+    private final Class<T> eventType;
+    private final Function<? super T, ? extends K> keyExtractor;
+    private final EventPriority priority;
+    private final boolean ignoreCancelled;
+    private final Executor executor;
+
+    private final AtomicInteger dispatches = new AtomicInteger();
+
+    private volatile Table<T> table = new Table<>(new ArrayList<>(), false, false);
+    private volatile Consumer<? super T> completion;
+    private boolean registered;
+
+    EventDispatcher(EventBus bus, Class<T> eventType, Function<? super T, ? extends K> keyExtractor, EventPriority priority, boolean ignoreCancelled, Executor executor) {
+        this.bus = bus;
+        this.eventType = Preconditions.checkNotNull(eventType, "eventType");
+        this.keyExtractor = Preconditions.checkNotNull(keyExtractor, "keyExtractor");
+        this.priority = Preconditions.checkNotNull(priority, "priority");
+        this.ignoreCancelled = ignoreCancelled;
+        this.executor = Preconditions.checkNotNull(executor, "executor");
+    }
+
+    /**
+     * Handle every event.
+     *
+     * @param handler non-null consumer that handles the event.
+     * @return this dispatcher.
+     */
+    public EventDispatcher<T, K> observe(Consumer<? super T> handler) {
+        return add(new Entry<>(handler, null, false));
+    }
+
+    /**
+     * Handle the events whose key is equal to the given key.
+     *
+     * @param key     non-null key, which must have a stable {@link Object#hashCode()}.
+     * @param handler non-null consumer that handles the event.
+     * @return this dispatcher.
+     */
+    public EventDispatcher<T, K> observeKey(K key, Consumer<? super T> handler) {
+        return add(new Entry<>(handler, Preconditions.checkNotNull(key, "key"), false));
+    }
+
+    /**
+     * Handle every event asynchronously, with a handler that is safe to run at the same time as the other handlers on
+     * a thread of the executor. Parallel handlers should only read from the event, are run after the event has been
+     * checked for cancellation, and may still be running after the event has been fired, from the first event onwards.
+     * Whilst they are cheap they are run inline instead, which a handler cannot tell apart except by its thread.
+     *
+     * @param handler non-null thread-safe consumer that handles the event.
+     * @return this dispatcher.
+     */
+    public EventDispatcher<T, K> observeParallel(Consumer<? super T> handler) {
+        return add(new Entry<>(handler, null, true));
+    }
+
+    /**
+     * Set a callback that is run once every parallel handler has handled an event. It runs on the thread that
+     * finished the last parallel handler, which is the thread that fired the event unless the handlers were fanned out.
+     *
+     * @param completion consumer that is passed the event, or {@code null} to remove the callback.
+     * @return this dispatcher.
+     */
+    public EventDispatcher<T, K> whenParallelComplete(Consumer<? super T> completion) {
+        this.completion = completion;
+        return this;
+    }
+
+    /**
+     * Remove the first handler that uses the given consumer.
+     *
+     * @param handler non-null consumer that was passed to this dispatcher.
+     * @return {@code true} if a handler was removed.
+     */
+    public synchronized boolean remove(Consumer<? super T> handler) {
+        Preconditions.checkNotNull(handler, "handler");
+        for (Iterator<Entry<T>> iterator = entries.iterator(); iterator.hasNext(); ) {
+            if (iterator.next().handler == handler) {
+                iterator.remove();
+                rebuild(table.fanOut);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remove every handler and unregister the dispatcher from Bukkit.
+     */
+    public synchronized void unregister() {
+        entries.clear();
+        rebuild(false);
+        if (registered) {
+            bus.getHandlerList(eventType).unregister(this);
+            registered = false;
+        }
+    }
+
+    /**
+     * Get the number of handlers.
+     *
+     * @return handler count.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Determine whether keyed handlers are currently looked up through an index.
+     *
+     * @return {@code true} if the dispatcher is using an index.
+     */
+    public boolean isIndexed() {
+        return table.index != null;
+    }
+
+    /**
+     * Determine whether parallel handlers are currently fanned out across the executor.
+     *
+     * @return {@code true} if the dispatcher is fanning out.
+     */
+    public boolean isFanningOut() {
+        return table.fanOut;
+    }
+
+    private synchronized EventDispatcher<T, K> add(Entry<T> entry) {
+        Preconditions.checkNotNull(entry.handler, "handler");
+        entries.add(entry);
+        rebuild(table.fanOut);
+        if (!registered) {
+            bus.register(eventType, this, EventTopology.Mode.DISPATCHER, (listener, event) -> dispatch(event), priority, ignoreCancelled);
+            registered = true;
+        }
+        return this;
+    }
+
+    private void rebuild(boolean fanOut) {
+        Table<T> current = table;
+        int keyed = 0;
+        for (Entry<T> entry : entries) {
+            if (entry.key != null) {
+                keyed++;
+            }
+        }
+        boolean indexed = current.index != null ? keyed > INDEX_EXIT : keyed >= INDEX_ENTER;
+        table = new Table<>(new ArrayList<>(entries), indexed, fanOut);
+    }
+
+    private void dispatch(T event) {
+        Table<T> current = table;
+        boolean sample = current.sampling && dispatches.incrementAndGet() % SAMPLE_INTERVAL == 0;
+        Cancellable cancellable = ignoreCancelled && event instanceof Cancellable ? (Cancellable) event : null;
+
+        Object key = current.keyed ? extractKey(event) : null;
+        long work = run(current.inline, event, key, cancellable, sample);
+        if (current.index != null && key != null) {
+            Entry<T>[] handlers = current.index.get(key);
+            if (handlers != null) {
+                work += run(handlers, event, key, cancellable, sample);
+            }
+        }
+
+        boolean parallel = current.parallelCount > 0 && (cancellable == null || !cancellable.isCancelled());
+        if (parallel && current.parallel.length > 0) {
+            // The fan-out finishes the sample and runs the completion callback once its last handler is done
+            T snapshot = bus.snapshot(eventType, event);
+            if (snapshot != null) {
+                new FanOut(current, snapshot, work, sample).submit();
+                return;
+            }
+        }
+        if (parallel) {
+            complete(event);
+        }
+        if (sample) {
+            adapt(current, work);
+        }
+    }
+
+    private Object extractKey(T event) {
+        try {
+            return keyExtractor.apply(event);
+        } catch (Throwable cause) {
+            // An event whose key cannot be found only reaches the handlers that are not keyed
+            EventBus.logFailure(eventType, cause);
+            return null;
+        }
+    }
+
+    private long run(Entry<T>[] handlers, T event, Object key, Cancellable cancellable, boolean sample) {
+        long work = 0L;
+        for (Entry<T> entry : handlers) {
+            if (cancellable != null && cancellable.isCancelled()) {
+                break;
+            }
+            if (entry.key != null && !entry.key.equals(key)) {
+                continue;
+            }
+            if (sample && entry.parallel) {
+                long started = System.nanoTime();
+                EventBus.safeInvoke(eventType, event, entry.handler);
+                work += System.nanoTime() - started;
+            } else {
+                EventBus.safeInvoke(eventType, event, entry.handler);
+            }
+        }
+        return work;
+    }
+
+    private void complete(T event) {
+        Consumer<? super T> callback = completion;
+        if (callback != null) {
+            EventBus.safeInvoke(eventType, event, callback);
+        }
+    }
+
+    private void adapt(Table<T> current, long work) {
+        current.sampledNanos.addAndGet(work);
+        if (current.samples.incrementAndGet() % SAMPLE_WINDOW != 0) {
+            return;
+        }
+        long average = current.sampledNanos.getAndSet(0L) / SAMPLE_WINDOW;
+        boolean fanOut = current.fanOut ? average >= FAN_OUT_EXIT : average >= FAN_OUT_ENTER;
+        if (fanOut != current.fanOut) {
+            synchronized (this) {
+                if (table == current) {
+                    rebuild(fanOut);
+                }
+            }
+        }
+    }
+
+    /**
+     * The parallel handlers of a single event. The same task is submitted once per handler and each run claims the
+     * next unclaimed handler, so an event only allocates this object however many handlers it has.
+     */
+    private final class FanOut implements Runnable {
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicInteger remaining;
+        private final AtomicLong work;
+        private final Table<T> table;
+        private final T event;
+
+        private FanOut(Table<T> table, T event, long inlineWork, boolean sample) {
+            this.table = table;
+            this.event = event;
+            this.remaining = new AtomicInteger(table.parallel.length);
+            this.work = sample ? new AtomicLong(inlineWork) : null;
+        }
+
+        private void submit() {
+            for (int i = 0; i < table.parallel.length; i++) {
+                try {
+                    executor.execute(this);
+                } catch (RuntimeException ex) {
+                    // The executor is saturated or shut down, handle whatever is left on this thread instead
+                    run();
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            Entry<T>[] handlers = table.parallel;
+            int index;
+            while ((index = next.getAndIncrement()) < handlers.length) {
+                if (work == null) {
+                    EventBus.safeInvoke(eventType, event, handlers[index].handler);
+                } else {
+                    long started = System.nanoTime();
+                    EventBus.safeInvoke(eventType, event, handlers[index].handler);
+                    work.addAndGet(System.nanoTime() - started);
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    complete(event);
+                    if (work != null) {
+                        adapt(table, work.get());
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class Entry<T> {
+        private final Consumer<? super T> handler;
+        private final Object key;
+        private final boolean parallel;
+
+        private Entry(Consumer<? super T> handler, Object key, boolean parallel) {
+            this.handler = handler;
+            this.key = key;
+            this.parallel = parallel;
+        }
+    }
+
+    /**
+     * An immutable dispatch structure, replaced as a whole whenever the handlers or the representation change.
+     */
+    private static final class Table<T> {
+        private final AtomicLong sampledNanos = new AtomicLong();
+        private final AtomicLong samples = new AtomicLong();
+        private final Entry<T>[] inline;
+        private final Entry<T>[] parallel;
+        private final Map<Object, Entry<T>[]> index;
+        private final int parallelCount;
+        private final boolean keyed;
+        private final boolean fanOut;
+        private final boolean sampling;
+
+        @SuppressWarnings("unchecked")
+        private Table(List<Entry<T>> entries, boolean indexed, boolean fanOut) {
+            int parallelCount = 0;
+            for (Entry<T> entry : entries) {
+                if (entry.parallel) {
+                    parallelCount++;
+                }
+            }
+            this.parallelCount = parallelCount;
+            this.sampling = parallelCount >= FAN_OUT_MINIMUM;
+            this.fanOut = fanOut && sampling;
+
+            List<Entry<T>> inline = new ArrayList<>();
+            List<Entry<T>> parallel = new ArrayList<>();
+            Map<Object, List<Entry<T>>> index = indexed ? new HashMap<>() : null;
+            boolean keyed = false;
+            for (Entry<T> entry : entries) {
+                if (entry.key != null) {
+                    keyed = true;
+                    if (index != null) {
+                        index.computeIfAbsent(entry.key, key -> new ArrayList<>()).add(entry);
+                        continue;
+                    }
+                }
+                (this.fanOut && entry.parallel ? parallel : inline).add(entry);
+            }
+
+            this.keyed = keyed;
+            this.inline = inline.toArray(new Entry[inline.size()]);
+            this.parallel = parallel.toArray(new Entry[parallel.size()]);
+            if (index == null) {
+                this.index = null;
+            } else {
+                this.index = new HashMap<>();
+                for (Map.Entry<Object, List<Entry<T>>> entry : index.entrySet()) {
+                    this.index.put(entry.getKey(), entry.getValue().toArray(new Entry[entry.getValue().size()]));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package ninja.smirking.events.bukkit;
+
+import java.util.List;
+import java.util.Set;
+
+import org.bukkit.event.Listener;
+
+/**
+ * Registers the {@link Observe} methods of a class with direct calls.
+ * Implementations are generated by {@link ObserveProcessor} and should not be written by hand.
+ *
+ * @param <T> type that declares the annotated methods.
+ * @author Connor Spencer Harries
+ * @version 1.0
+ * @since 1.0
+ */
+public interface EventIndex<T> {
+    /**
+     * Suffix appended to the binary name of the declaring class to get the name of its index.
+     */
+    String SUFFIX = "_EventIndex";
+
+    /**
+     * Register every annotated method of an object that has not already been registered by the index of a subclass.
+     *
+     * @param bus        non-null bus that the handlers are registered through.
+     * @param target     non-null object that declares the annotated methods.
+     * @param registered non-null keys of the handlers registered so far, shared by every index of the object.
+     * @return non-null list containing a Bukkit {@link Listener} for each handler.
+     */
+    List<Listener> register(EventBus bus, T target, Set<String> registered);
+}
@@ -0,0 +1,161 @@
+package ninja.smirking.events.bukkit;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import com.google.common.base.Preconditions;
+import org.bukkit.event.Cancellable;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+
+/**
+ * An ordered sequence of handlers that share a single Bukkit registration for one event type and priority.
+ * Stages are run in the order that they were added, if the pipeline ignores cancelled events then the remaining stages
+ * are skipped as soon as a {@link Cancellable} event has been cancelled.
+ * <p>
+ * Pipelines are obtained from {@link EventBus#pipeline(Class, EventPriority, boolean)}.
+ *
+ * @param <T> event type.
+ * @author Connor Spencer Harries
+ * @version 1.0
+ * @since 1.0
+ */
+public final class EventPipeline<T extends Event> implements Listener {
+    private static final Consumer<?>[] EMPTY = new Consumer<?>[0];
+
+    private final EventBus bus;
+    private final Class<T> eventType;
+    private final EventPriority priority;
+    private final boolean ignoreCancelled;
+
+    private volatile Consumer<? super T>[] stages;
+    private boolean registered;
+    private boolean unregistered;
+
+    @SuppressWarnings("unchecked")
+    EventPipeline(EventBus bus, Class<T> eventType, EventPriority priority, boolean ignoreCancelled) {
+        this.bus = bus;
+        this.eventType = eventType;
+        this.priority = priority;
+        this.ignoreCancelled = ignoreCancelled;
+        this.stages = (Consumer<? super T>[]) EMPTY;
+    }
+
+    /**
+     * Add a stage to the end of the pipeline.
+     *
+     * @param handler non-null consumer that handles the event.
+     * @return this pipeline.
+     * @throws IllegalStateException if the pipeline has been unregistered.
+     */
+    public synchronized EventPipeline<T> then(Consumer<? super T> handler) {
+        Preconditions.checkNotNull(handler, "handler");
+        Preconditions.checkState(!unregistered, "pipeline has been unregistered, obtain a new one from the bus");
+        Consumer<? super T>[] current = stages;
+        Consumer<? super T>[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = handler;
+        stages = updated;
+        if (!registered) {
+            bus.register(eventType, this, EventTopology.Mode.PIPELINE, (listener, event) -> dispatch(event), priority, ignoreCancelled);
+            registered = true;
+        }
+        return this;
+    }
+
+    /**
+     * Remove the first stage that uses the given handler. Removing the last stage unregisters the pipeline from Bukkit
+     * until another stage is added.
+     *
+     * @param handler non-null consumer that was passed to {@link #then(Consumer)}.
+     * @return {@code true} if a stage was removed.
+     */
+    public synchronized boolean remove(Consumer<? super T> handler) {
+        Preconditions.checkNotNull(handler, "handler");
+        Consumer<? super T>[] current = stages;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == handler) {
+                Consumer<? super T>[] updated = Arrays.copyOf(current, current.length - 1);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                stages = updated;
+                if (updated.length == 0) {
+                    detach();
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remove every stage and unregister the pipeline from Bukkit.
+     * A later call to {@link EventBus#pipeline(Class, EventPriority, boolean)} creates a new pipeline.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized void unregister() {
+        stages = (Consumer<? super T>[]) EMPTY;
+        unregistered = true;
+        detach();
+        bus.removePipeline(this);
+    }
+
+    /**
+     * Get the number of stages in the pipeline.
+     *
+     * @return stage count.
+     */
+    public int size() {
+        return stages.length;
+    }
+
+    /**
+     * Get the type of event handled by the pipeline.
+     *
+     * @return non-null event type.
+     */
+    public Class<T> getEventType() {
+        return eventType;
+    }
+
+    /**
+     * Get the priority that the pipeline is registered at.
+     *
+     * @return non-null priority.
+     */
+    public EventPriority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Determine whether the pipeline skips events that have been cancelled.
+     *
+     * @return {@code true} if cancelled events are skipped.
+     */
+    public boolean isIgnoringCancelled() {
+        return ignoreCancelled;
+    }
+
+    private void detach() {
+        if (registered) {
+            bus.getHandlerList(eventType).unregister(this);
+            registered = false;
+        }
+    }
+
+    private void dispatch(T event) {
+        Consumer<? super T>[] current = stages;
+        if (ignoreCancelled && event instanceof Cancellable) {
+            Cancellable cancellable = (Cancellable) event;
+            for (Consumer<? super T> stage : current) {
+                if (cancellable.isCancelled()) {
+                    return;
+                }
+                EventBus.safeInvoke(eventType, event, stage);
+            }
+        } else {
+            for (Consumer<? super T> stage : current) {
+                EventBus.safeInvoke(eventType, event, stage);
+            }
+        }
+    }
+}
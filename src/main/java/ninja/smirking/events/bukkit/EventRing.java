@@ -0,0 +1,394 @@
+package ninja.smirking.events.bukkit;
+
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.LongUnaryOperator;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+
+/**
+ * Hands events of a single type to a chain of stages through a fixed-size ring of preallocated slots, in the style of
+ * the LMAX Disruptor. Firing an event only claims a slot and stores a reference to the event, so nothing is allocated
+ * per event and the thread that fired the event never runs the handlers. Each stage runs on its own thread and handles
+ * an event only after the stage before it has, so stages form a pipeline without any queues between them.
+ * <p>
+ * Rings are intended for events that Bukkit already fires asynchronously, such as {@code AsyncPlayerPreLoginEvent}.
+ * Stages run after the event has been fired, so they should only read from the event, or the event type should have a
+ * copier registered with {@link EventBus#registerSnapshot}, in which case the ring stores a copy that is taken whilst
+ * the event is being fired. When the ring is full the thread that fires the event waits for the last stage to catch up.
+ * <p>
+ * Rings are created by {@link EventBus#ring(Class)}.
+ *
+ * @param <T> event type.
+ * @author Connor Spencer Harries
+ * @version 1.0
+ * @since 1.0
+ */
+public final class EventRing<T extends Event> implements Listener {
+    private static final long INITIAL = -1L;
+
+    private final EventBus bus;
+    private final Class<T> eventType;
+    private final Producer producer;
+    private final WaitStrategy waitStrategy;
+    private final Object[] slots;
+    private final int mask;
+    private final int shift;
+    private final AtomicIntegerArray published;
+    private final Sequence cursor = new Sequence();
+    private final Sequence gatingCache = new Sequence();
+    private final Sequence[] sequences;
+    private final Thread[] threads;
+
+    private long claimed = INITIAL;
+    private volatile boolean running;
+
+    private EventRing(Builder<T> builder) {
+        this.bus = builder.bus;
+        this.eventType = builder.eventType;
+        this.producer = builder.producer;
+        this.waitStrategy = builder.waitStrategy;
+        this.slots = new Object[builder.size];
+        this.mask = builder.size - 1;
+        this.shift = Integer.numberOfTrailingZeros(builder.size);
+        if (producer == Producer.MULTI) {
+            this.published = new AtomicIntegerArray(builder.size);
+            for (int i = 0; i < builder.size; i++) {
+                published.set(i, -1);
+            }
+        } else {
+            this.published = null;
+        }
+
+        int stages = builder.stages.size();
+        this.sequences = new Sequence[stages];
+        this.threads = new Thread[stages];
+        for (int i = 0; i < stages; i++) {
+            sequences[i] = new Sequence();
+        }
+        for (int i = 0; i < stages; i++) {
+            Runnable stage = stage(i, builder.stages.get(i));
+            threads[i] = builder.threadFactory.newThread(stage);
+        }
+    }
+
+    /**
+     * Get the type of event that is handed to the stages.
+     *
+     * @return non-null event type.
+     */
+    public Class<T> getEventType() {
+        return eventType;
+    }
+
+    /**
+     * Get the number of slots in the ring.
+     *
+     * @return slot count.
+     */
+    public int getBufferSize() {
+        return slots.length;
+    }
+
+    /**
+     * Get the number of events that have been published to the ring.
+     *
+     * @return published event count.
+     */
+    public long getPublished() {
+        return cursor.get() + 1L;
+    }
+
+    /**
+     * Get the number of events that every stage has handled.
+     *
+     * @return handled event count.
+     */
+    public long getHandled() {
+        return sequences[sequences.length - 1].get() + 1L;
+    }
+
+    /**
+     * Unregister the ring and stop its stages. Events that have not been handled by every stage yet are dropped, and
+     * a thread that is waiting for space in the ring fails with an {@link IllegalStateException}.
+     */
+    public void close() {
+        bus.getHandlerList(eventType).unregister(this);
+        running = false;
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+    }
+
+    private void start(EventPriority priority, boolean ignoreCancelled) {
+        running = true;
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        bus.register(eventType, this, EventTopology.Mode.RING, (listener, event) -> publish(event), priority, ignoreCancelled);
+    }
+
+    void publish(T event) {
+        // Copy before claiming, a copier that fails must not leave a claimed slot unpublished
+        T stored = bus.snapshot(eventType, event);
+        if (stored == null) {
+            return;
+        }
+        long sequence = producer == Producer.SINGLE ? claimSingle() : claimMulti();
+        int index = (int) sequence & mask;
+        slots[index] = stored;
+        if (producer == Producer.SINGLE) {
+            cursor.lazySet(sequence);
+        } else {
+            published.lazySet(index, (int) (sequence >>> shift));
+        }
+        waitStrategy.signalAll();
+    }
+
+    private long claimSingle() {
+        long next = claimed + 1L;
+        long wrap = next - slots.length;
+        if (wrap > gatingCache.get()) {
+            long gating;
+            while (true) {
+                gating = sequences[sequences.length - 1].get();
+                // Checked after reading the gate, a slot that was freed because the ring was closed must not be claimed
+                checkRunning();
+                if (wrap <= gating) {
+                    break;
+                }
+                LockSupport.parkNanos(1L);
+            }
+            gatingCache.lazySet(gating);
+        }
+        claimed = next;
+        return next;
+    }
+
+    private long claimMulti() {
+        while (true) {
+            long current = cursor.get();
+            long next = current + 1L;
+            long wrap = next - slots.length;
+            if (wrap > gatingCache.get()) {
+                long gating = sequences[sequences.length - 1].get();
+                checkRunning();
+                if (wrap > gating) {
+                    LockSupport.parkNanos(1L);
+                    continue;
+                }
+                gatingCache.set(gating);
+            } else if (cursor.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    private void checkRunning() {
+        // The stages have stopped, so a full ring would never drain
+        Preconditions.checkState(running, "ring for %s has been closed", eventType.getName());
+    }
+
+    private long highestPublished(long lowerBound) {
+        long available = cursor.get();
+        for (long sequence = lowerBound; sequence <= available; sequence++) {
+            if (published.get((int) sequence & mask) != (int) (sequence >>> shift)) {
+                return sequence - 1L;
+            }
+        }
+        return available;
+    }
+
+    private Runnable stage(int index, Consumer<? super T> handler) {
+        Sequence sequence = sequences[index];
+        boolean last = index == sequences.length - 1;
+        LongUnaryOperator gate;
+        if (index > 0) {
+            Sequence previous = sequences[index - 1];
+            gate = next -> previous.get();
+        } else if (producer == Producer.SINGLE) {
+            gate = next -> cursor.get();
+        } else {
+            gate = this::highestPublished;
+        }
+
+        return () -> {
+            long next = sequence.get() + 1L;
+            while (running) {
+                long available;
+                try {
+                    available = waitStrategy.waitFor(next, gate);
+                } catch (InterruptedException ex) {
+                    // Only close() stops a stage, an interrupt left behind by a handler must not leave producers waiting forever
+                    continue;
+                }
+                for (; next <= available; next++) {
+                    int slot = (int) next & mask;
+                    EventBus.safeInvoke(eventType, eventType.cast(slots[slot]), handler);
+                    if (last) {
+                        slots[slot] = null;
+                    }
+                }
+                sequence.lazySet(available);
+                waitStrategy.signalAll();
+                // Clear an interrupt restored by a handler so that it does not reach the handling of the next event
+                Thread.interrupted();
+            }
+        };
+    }
+
+    /**
+     * Whether a ring is published to by a single thread or by many.
+     */
+    public enum Producer {
+        /**
+         * Only one thread fires the event, so slots are claimed without any atomic instructions.
+         */
+        SINGLE,
+        /**
+         * Any number of threads fire the event, slots are claimed with a compare-and-set.
+         */
+        MULTI
+    }
+
+    /**
+     * Describes an {@link EventRing} before it is started.
+     *
+     * @param <T> event type.
+     */
+    public static final class Builder<T extends Event> {
+        private static final AtomicInteger threadCount = new AtomicInteger();
+
+        private final List<Consumer<? super T>> stages = Lists.newArrayList();
+        private final EventBus bus;
+        private final Class<T> eventType;
+        private int size = 1024;
+        private Producer producer = Producer.MULTI;
+        private WaitStrategy waitStrategy = WaitStrategy.blocking();
+        private EventPriority priority = EventPriority.MONITOR;
+        private boolean ignoreCancelled = true;
+        private ThreadFactory threadFactory;
+
+        Builder(EventBus bus, Class<T> eventType) {
+            this.bus = bus;
+            this.eventType = Preconditions.checkNotNull(eventType, "eventType");
+            this.threadFactory = runnable -> {
+                Thread thread = new Thread(runnable, bus.getPlugin().getName() + " " + eventType.getSimpleName() + " Ring #" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+
+        /**
+         * Set the number of slots in the ring, which defaults to {@code 1024}.
+         *
+         * @param size positive power of two.
+         * @return this builder.
+         */
+        public Builder<T> bufferSize(int size) {
+            Preconditions.checkArgument(size > 0 && Integer.bitCount(size) == 1, "size must be a positive power of two");
+            this.size = size;
+            return this;
+        }
+
+        /**
+         * Set whether the event is fired by a single thread or by many, which defaults to {@link Producer#MULTI}.
+         * {@link Producer#SINGLE} is faster but must only be used if the event is never fired by two threads at once.
+         *
+         * @param producer non-null producer type.
+         * @return this builder.
+         */
+        public Builder<T> producer(Producer producer) {
+            this.producer = Preconditions.checkNotNull(producer, "producer");
+            return this;
+        }
+
+        /**
+         * Set how the stages wait for events, which defaults to {@link WaitStrategy#blocking()}.
+         *
+         * @param waitStrategy non-null wait strategy.
+         * @return this builder.
+         */
+        public Builder<T> waitStrategy(WaitStrategy waitStrategy) {
+            this.waitStrategy = Preconditions.checkNotNull(waitStrategy, "waitStrategy");
+            return this;
+        }
+
+        /**
+         * Set the priority that the ring listens at, which defaults to {@link EventPriority#MONITOR}.
+         *
+         * @param priority non-null listener priority.
+         * @return this builder.
+         */
+        public Builder<T> priority(EventPriority priority) {
+            this.priority = Preconditions.checkNotNull(priority, "priority");
+            return this;
+        }
+
+        /**
+         * Set whether events that have been cancelled should be left out of the ring, which defaults to {@code true}.
+         *
+         * @param ignoreCancelled whether cancelled events should be skipped.
+         * @return this builder.
+         */
+        public Builder<T> ignoreCancelled(boolean ignoreCancelled) {
+            this.ignoreCancelled = ignoreCancelled;
+            return this;
+        }
+
+        /**
+         * Set the factory that creates a thread for each stage, which defaults to daemon threads named after the event.
+         *
+         * @param threadFactory non-null thread factory.
+         * @return this builder.
+         */
+        public Builder<T> threadFactory(ThreadFactory threadFactory) {
+            this.threadFactory = Preconditions.checkNotNull(threadFactory, "threadFactory");
+            return this;
+        }
+
+        /**
+         * Add a stage, which handles each event after every stage that was added before it.
+         *
+         * @param stage non-null consumer that handles the event.
+         * @return this builder.
+         */
+        public Builder<T> then(Consumer<? super T> stage) {
+            stages.add(Preconditions.checkNotNull(stage, "stage"));
+            return this;
+        }
+
+        /**
+         * Start the stages and register the ring with Bukkit.
+         *
+         * @return non-null running ring.
+         */
+        public EventRing<T> start() {
+            Preconditions.checkState(!stages.isEmpty(), "a ring needs at least one stage");
+            EventRing<T> ring = new EventRing<>(this);
+            ring.start(priority, ignoreCancelled);
+            return ring;
+        }
+    }
+
+    /**
+     * A sequence number padded so that it does not share a cache line with the sequences of other stages.
+     */
+    @SuppressWarnings("unused")
+    private static final class Sequence extends AtomicLong {
+        private long p1, p2, p3, p4, p5, p6, p7;
+
+        private Sequence() {
+            super(INITIAL);
+        }
+    }
+}
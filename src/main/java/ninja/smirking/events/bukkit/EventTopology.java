@@ -0,0 +1,403 @@
+package ninja.smirking.events.bukkit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.bukkit.event.Event;
+import org.bukkit.event.EventPriority;
+
+/**
+ * A snapshot of every handler attached to the event types used by an {@link EventBus}, including handlers that other
+ * plugins registered with Bukkit directly. Snapshots are taken by {@link EventBus#topology(boolean)}, which only copies
+ * the {@code HandlerList} of each type, so formatting and writing a snapshot can be left to another thread.
+ * <p>
+ * The cost of each handler is only measured whilst {@link EventBus#setProfiling(boolean) profiling} is enabled.
+ *
+ * @author Connor Spencer Harries
+ * @version 1.0
+ * @since 1.0
+ */
+public final class EventTopology {
+    private final long capturedAt;
+    private final List<Subscriber> subscribers;
+
+    EventTopology(long capturedAt, List<Subscriber> subscribers) {
+        this.capturedAt = capturedAt;
+        this.subscribers = Collections.unmodifiableList(subscribers);
+    }
+
+    /**
+     * Get the time at which the snapshot was taken.
+     *
+     * @return milliseconds since the epoch.
+     */
+    public long getCapturedAt() {
+        return capturedAt;
+    }
+
+    /**
+     * Get every handler in the snapshot, grouped by event type and ordered by priority.
+     *
+     * @return non-null immutable list.
+     */
+    public List<Subscriber> getSubscribers() {
+        return subscribers;
+    }
+
+    /**
+     * Group the handlers in the snapshot by event type, most expensive type first.
+     *
+     * @return non-null map of event types to their handlers.
+     */
+    public Map<Class<? extends Event>, List<Subscriber>> byEventType() {
+        Map<Class<? extends Event>, List<Subscriber>> grouped = new LinkedHashMap<>();
+        for (Subscriber subscriber : subscribers) {
+            grouped.computeIfAbsent(subscriber.getEventType(), key -> new ArrayList<>()).add(subscriber);
+        }
+        List<Map.Entry<Class<? extends Event>, List<Subscriber>>> entries = new ArrayList<>(grouped.entrySet());
+        entries.sort(Comparator.comparingLong((Map.Entry<Class<? extends Event>, List<Subscriber>> entry) -> totalNanos(entry.getValue())).reversed()
+                .thenComparing(entry -> entry.getKey().getName()));
+        Map<Class<? extends Event>, List<Subscriber>> sorted = new LinkedHashMap<>();
+        for (Map.Entry<Class<? extends Event>, List<Subscriber>> entry : entries) {
+            sorted.put(entry.getKey(), entry.getValue());
+        }
+        return sorted;
+    }
+
+    /**
+     * Summarise the snapshot in a few lines per event type, which is short enough to send to a player or the console.
+     *
+     * @return non-null list of lines.
+     */
+    public List<String> summarize() {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<Class<? extends Event>, List<Subscriber>> entry : byEventType().entrySet()) {
+            List<Subscriber> handlers = entry.getValue();
+            long invocations = 0L;
+            for (Subscriber subscriber : handlers) {
+                invocations += subscriber.getInvocations();
+            }
+            lines.add(String.format("%s: %d handlers, %d calls, %.2f ms", entry.getKey().getName(), handlers.size(), invocations, totalNanos(handlers) / 1e6D));
+
+            Map<EventPriority, List<Subscriber>> byPriority = new EnumMap<>(EventPriority.class);
+            for (Subscriber subscriber : handlers) {
+                byPriority.computeIfAbsent(subscriber.getPriority(), key -> new ArrayList<>()).add(subscriber);
+            }
+            for (Map.Entry<EventPriority, List<Subscriber>> priority : byPriority.entrySet()) {
+                Map<Mode, Integer> modes = new EnumMap<>(Mode.class);
+                TreeSet<String> owners = new TreeSet<>();
+                for (Subscriber subscriber : priority.getValue()) {
+                    modes.merge(subscriber.getMode(), 1, Integer::sum);
+                    owners.add(subscriber.getOwner());
+                }
+                StringBuilder line = new StringBuilder("  ").append(priority.getKey()).append(':');
+                String separator = " ";
+                for (Map.Entry<Mode, Integer> mode : modes.entrySet()) {
+                    line.append(separator).append(mode.getValue()).append(' ').append(mode.getKey().getName());
+                    separator = ", ";
+                }
+                lines.add(line.append(' ').append(owners).toString());
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Write every handler in the snapshot as JSON.
+     *
+     * @return non-null JSON document.
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder(128 + subscribers.size() * 160);
+        json.append("{\"capturedAt\":").append(capturedAt).append(",\"types\":[");
+        String typeSeparator = "";
+        for (Map.Entry<Class<? extends Event>, List<Subscriber>> entry : byEventType().entrySet()) {
+            json.append(typeSeparator).append("{\"eventType\":");
+            quote(json, entry.getKey().getName()).append(",\"subscribers\":[");
+            String separator = "";
+            for (Subscriber subscriber : entry.getValue()) {
+                json.append(separator).append("{\"priority\":");
+                quote(json, subscriber.getPriority().name()).append(",\"mode\":");
+                quote(json, subscriber.getMode().getName()).append(",\"owner\":");
+                quote(json, subscriber.getOwner()).append(",\"origin\":");
+                quote(json, subscriber.getOrigin()).append(",\"ignoreCancelled\":").append(subscriber.isIgnoringCancelled());
+                json.append(",\"invocations\":").append(subscriber.getInvocations());
+                json.append(",\"nanos\":").append(subscriber.getNanos()).append('}');
+                separator = ",";
+            }
+            json.append("]}");
+            typeSeparator = ",";
+        }
+        return json.append("]}").toString();
+    }
+
+    private static long totalNanos(List<Subscriber> subscribers) {
+        long nanos = 0L;
+        for (Subscriber subscriber : subscribers) {
+            nanos += subscriber.getNanos();
+        }
+        return nanos;
+    }
+
+    private static StringBuilder quote(StringBuilder json, String value) {
+        if (value == null) {
+            return json.append("null");
+        }
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"');
+    }
+
+    /**
+     * The way in which a handler was registered.
+     */
+    public enum Mode {
+        /**
+         * {@link EventBus#observe}, handles a single event.
+         */
+        ONCE("once"),
+        /**
+         * {@link EventBus#observeAll}, handles every event.
+         */
+        ALL("all"),
+        /**
+         * {@link EventBus#observeIf}, handles the events that pass a predicate.
+         */
+        IF("if"),
+        /**
+         * {@link EventBus#observeFor}, handles every event until a duration has passed.
+         */
+        FOR("for"),
+        /**
+         * {@link EventBus#observeOn} and {@link EventBus#observeRouted}, hands events to an executor.
+         */
+        ROUTED("routed"),
+        /**
+         * {@link EventBus#observeSnapshot}, hands a projection of events to an executor.
+         */
+        SNAPSHOT("snapshot"),
+        /**
+         * {@link EventBus#observeRateLimited}, handles a limited number of events for each key.
+         */
+        RATE_LIMITED("rate-limited"),
+        /**
+         * {@link EventBus#count} and {@link EventBus#sum}, updates an {@link EventAggregate}.
+         */
+        AGGREGATE("aggregate"),
+        /**
+         * {@link EventBus#pipeline}, runs the stages of an {@link EventPipeline}.
+         */
+        PIPELINE("pipeline"),
+        /**
+         * {@link EventBus#subscriptionSet()}, runs the handlers of a {@link SubscriptionSet}.
+         */
+        SUBSCRIPTION_SET("subscription-set"),
+        /**
+         * {@link EventBus#ring(Class)}, publishes events to an {@link EventRing}.
+         */
+        RING("ring"),
+        /**
+         * {@link EventBus#dispatcher}, runs the handlers of an {@link EventDispatcher}.
+         */
+        DISPATCHER("dispatcher"),
+        /**
+         * A listener that was registered with Bukkit directly, by this plugin or another.
+         */
+        LISTENER("listener");
+
+        private final String name;
+
+        Mode(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Get the name of the mode that is used in reports.
+         *
+         * @return non-null lower case name.
+         */
+        public String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * A single handler in a snapshot.
+     */
+    public static final class Subscriber {
+        private final Class<? extends Event> eventType;
+        private final EventPriority priority;
+        private final Mode mode;
+        private final String owner;
+        private final String origin;
+        private final boolean ignoreCancelled;
+        private final long invocations;
+        private final long nanos;
+
+        Subscriber(Class<? extends Event> eventType, EventPriority priority, Mode mode, String owner, String origin, boolean ignoreCancelled, long invocations, long nanos) {
+            this.eventType = eventType;
+            this.priority = priority;
+            this.mode = mode;
+            this.owner = owner;
+            this.origin = origin;
+            this.ignoreCancelled = ignoreCancelled;
+            this.invocations = invocations;
+            this.nanos = nanos;
+        }
+
+        /**
+         * Get the event type that the handler is attached to.
+         *
+         * @return non-null event type.
+         */
+        public Class<? extends Event> getEventType() {
+            return eventType;
+        }
+
+        /**
+         * Get the priority of the handler.
+         *
+         * @return non-null handler priority.
+         */
+        public EventPriority getPriority() {
+            return priority;
+        }
+
+        /**
+         * Get the way in which the handler was registered.
+         *
+         * @return non-null mode.
+         */
+        public Mode getMode() {
+            return mode;
+        }
+
+        /**
+         * Get the name of the plugin that owns the handler.
+         *
+         * @return non-null plugin name.
+         */
+        public String getOwner() {
+            return owner;
+        }
+
+        /**
+         * Get the class that registered the handler. Handlers registered through the bus only record their origin
+         * if profiling was enabled at the time, listeners registered with Bukkit directly report their own class.
+         *
+         * @return class name, or {@code null} if it is not known.
+         */
+        public String getOrigin() {
+            return origin;
+        }
+
+        /**
+         * Determine whether the handler skips events that have already been cancelled.
+         *
+         * @return {@code true} if cancelled events are skipped.
+         */
+        public boolean isIgnoringCancelled() {
+            return ignoreCancelled;
+        }
+
+        /**
+         * Get the number of times the handler was called whilst profiling was enabled.
+         *
+         * @return invocation count.
+         */
+        public long getInvocations() {
+            return invocations;
+        }
+
+        /**
+         * Get the time spent in the handler whilst profiling was enabled.
+         *
+         * @return total time in nanoseconds.
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * Get the average time spent in the handler per call whilst profiling was enabled.
+         *
+         * @param unit non-null unit to return the time in.
+         * @return average time, or {@code 0} if the handler has not been profiled.
+         */
+        public double getAverage(TimeUnit unit) {
+            return invocations == 0L ? 0D : (double) nanos / invocations / unit.toNanos(1L);
+        }
+    }
+
+    /**
+     * Records what is known about a handler registered through a bus, and its cost whilst profiling is enabled.
+     * Buses extend it with the executor of the handler, so registering a handler does not allocate anything more, and
+     * the counters are only allocated once the handler is first profiled.
+     */
+    static class Probe {
+        private final Class<? extends Event> eventType;
+        private final EventPriority priority;
+        private final Mode mode;
+        private final String origin;
+
+        private volatile Counters counters;
+
+        Probe(Class<? extends Event> eventType, EventPriority priority, Mode mode, String origin) {
+            this.eventType = eventType;
+            this.priority = priority;
+            this.mode = mode;
+            this.origin = origin;
+        }
+
+        final Class<? extends Event> getEventType() {
+            return eventType;
+        }
+
+        final EventPriority getPriority() {
+            return priority;
+        }
+
+        final void record(long elapsed) {
+            Counters current = counters;
+            if (current == null) {
+                synchronized (this) {
+                    current = counters;
+                    if (current == null) {
+                        counters = current = new Counters();
+                    }
+                }
+            }
+            current.invocations.increment();
+            current.nanos.add(elapsed);
+        }
+
+        final Subscriber capture(String owner, boolean ignoreCancelled, boolean reset) {
+            Counters current = counters;
+            long calls = current == null ? 0L : reset ? current.invocations.sumThenReset() : current.invocations.sum();
+            long time = current == null ? 0L : reset ? current.nanos.sumThenReset() : current.nanos.sum();
+            return new Subscriber(eventType, priority, mode, owner, origin, ignoreCancelled, calls, time);
+        }
+    }
+
+    private static final class Counters {
+        private final LongAdder invocations = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+    }
+}
@@ -1,36 +1,89 @@
 package ninja.smirking.events.bukkit;
 
-import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Predicate;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
 
 import com.google.common.base.Preconditions;
-import com.google.common.base.Throwables;
-import com.google.common.collect.Lists;
 import org.bukkit.event.Event;
-import org.bukkit.event.EventException;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
-import org.bukkit.plugin.EventExecutor;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.java.JavaPlugin;
 
 /**
  * A collection of static utility methods that pertain to the handling of {@link Event} objects.
+ * Every method delegates to a shared {@link EventBus}, plugins should call {@link #init(Plugin)} from {@code onEnable}
+ * so that it does not have to be resolved whilst the first handler is being registered.
  *
  * @author Connor Spencer Harries
  * @version 1.0
  * @since 1.0
  */
 public final class Events {
-    private static final Logger internalLogger = Logger.getLogger(Events.class.getCanonicalName());
+    private static volatile EventBus bus;
 
-    private static Plugin plugin;
+    /**
+     * Create the {@link EventBus} that every static method delegates to.
+     * Calling this again with the same plugin returns the existing bus, whichever clock it was created with.
+     *
+     * @param plugin non-null plugin that owns every handler registered through this class.
+     * @return non-null event bus.
+     */
+    public static EventBus init(Plugin plugin) {
+        return bind(plugin, null);
+    }
+
+    /**
+     * Create the {@link EventBus} that every static method delegates to, reading the time from the given clock.
+     *
+     * @param plugin non-null plugin that owns every handler registered through this class.
+     * @param clock  non-null clock used by timed and rate-limited handlers.
+     * @return non-null event bus.
+     * @throws IllegalStateException if the bus of the same plugin was already created with a different clock, since
+     *                               replacing it would drop its pipelines, snapshots and rings.
+     */
+    public static EventBus init(Plugin plugin, EventClock clock) {
+        return bind(plugin, Preconditions.checkNotNull(clock, "clock"));
+    }
+
+    private static EventBus bind(Plugin plugin, EventClock clock) {
+        Preconditions.checkNotNull(plugin, "plugin");
+        synchronized (Events.class) {
+            EventBus current = bus;
+            if (current == null || current.getPlugin() != plugin) {
+                bus = current = new EventBus(plugin, clock == null ? EventClock.SYSTEM : clock);
+            } else {
+                Preconditions.checkState(clock == null || current.getClock() == clock, "Events has already been initialised with a different clock");
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Get the {@link EventBus} that every static method delegates to.
+     * If {@link #init(Plugin)} has not been called then the plugin that provides this class is used.
+     *
+     * @return non-null event bus.
+     */
+    public static EventBus getBus() {
+        EventBus current = bus;
+        if (current == null) {
+            synchronized (Events.class) {
+                current = bus;
+                if (current == null) {
+                    bus = current = new EventBus(JavaPlugin.getProvidingPlugin(Events.class));
+                }
+            }
+        }
+        return current;
+    }
 
     /**
      * Register a {@link Listener} which handles an event of the given type once before unregistering itself.
@@ -54,18 +107,26 @@ public final class Events {
      * @return non-null Bukkit {@link Listener}.
      */
     public static <T extends Event> Listener observe(Class<T> eventType, Consumer<? super T> handler, EventPriority priority) {
-        return registerListener(eventType, (listener, event) -> {
-            try {
-                safeInvoke(eventType, event, handler);
-            } finally {
-                event.getHandlers().unregister(listener);
-            }
-        }, priority);
+        return observe(eventType, handler, priority, false);
+    }
+
+    /**
+     * Register a {@link Listener} which handles an event of the given type once before unregistering itself.
+     *
+     * @param eventType       non-null event type.
+     * @param handler         non-null consumer that handles the event.
+     * @param priority        handler priority
+     * @param ignoreCancelled whether the handler should be skipped for events that have already been cancelled.
+     * @param <T>             event type.
+     * @return non-null Bukkit {@link Listener}.
+     */
+    public static <T extends Event> Listener observe(Class<T> eventType, Consumer<? super T> handler, EventPriority priority, boolean ignoreCancelled) {
+        return getBus().observe(eventType, handler, priority, ignoreCancelled);
     }
 
     /**
      * Register a {@link Listener} which handles an event of the given type multiple times.
-     * It is only unregistered when the providing plugin is disabled.
+     * It is only unregistered when the plugin that owns the {@link EventBus} is disabled.
      *
      * @param eventType non-null event type.
      * @param handler   non-null consumer that handles the event.
@@ -78,7 +139,7 @@ public final class Events {
 
     /**
      * Register a {@link Listener} which handles an event of the given type multiple times.
-     * It is only unregistered when the providing plugin is disabled.
+     * It is only unregistered when the plugin that owns the {@link EventBus} is disabled.
      *
      * @param eventType non-null event type.
      * @param handler   non-null consumer that handles the event.
@@ -87,7 +148,22 @@ public final class Events {
      * @return non-null Bukkit {@link Listener}.
      */
     public static <T extends Event> Listener observeAll(Class<T> eventType, Consumer<? super T> handler, EventPriority priority) {
-        return registerListener(eventType, (listener, event) -> safeInvoke(eventType, event, handler), priority);
+        return observeAll(eventType, handler, priority, false);
+    }
+
+    /**
+     * Register a {@link Listener} which handles an event of the given type multiple times.
+     * It is only unregistered when the plugin that owns the {@link EventBus} is disabled.
+     *
+     * @param eventType       non-null event type.
+     * @param handler         non-null consumer that handles the event.
+     * @param priority        handler priority
+     * @param ignoreCancelled whether the handler should be skipped for events that have already been cancelled.
+     * @param <T>             event type.
+     * @return non-null Bukkit {@link Listener}.
+     */
+    public static <T extends Event> Listener observeAll(Class<T> eventType, Consumer<? super T> handler, EventPriority priority, boolean ignoreCancelled) {
+        return getBus().observeAll(eventType, handler, priority, ignoreCancelled);
     }
 
     /**
@@ -116,11 +192,23 @@ public final class Events {
      * @return non-null Bukkit {@link Listener}.
      */
     public static <T extends Event> Listener observeIf(Class<T> eventType, Consumer<? super T> handler, Predicate<T> test, EventPriority priority) {
-        return registerListener(eventType, (listener, event) -> {
-            if (test.test(event)) {
-                safeInvoke(eventType, event, handler);
-            }
-        }, priority);
+        return observeIf(eventType, handler, test, priority, false);
+    }
+
+    /**
+     * Register a {@link Listener} which handles an event of the given type multiple times.
+     * A {@link Predicate} controls which events are passed to the handler.
+     *
+     * @param eventType       non-null event type.
+     * @param handler         non-null consumer that handles the event.
+     * @param test            non-null predicate that determines whether the event should be passed to the handler.
+     * @param priority        handler priority
+     * @param ignoreCancelled whether the handler should be skipped for events that have already been cancelled.
+     * @param <T>             event type.
+     * @return non-null Bukkit {@link Listener}.
+     */
+    public static <T extends Event> Listener observeIf(Class<T> eventType, Consumer<? super T> handler, Predicate<T> test, EventPriority priority, boolean ignoreCancelled) {
+        return getBus().observeIf(eventType, handler, test, priority, ignoreCancelled);
     }
 
     /**
@@ -166,70 +254,264 @@ public final class Events {
      * @return non-null Bukkit {@link Listener}.
      */
     public static <T extends Event> Listener observeFor(Class<T> eventType, BiConsumer<? super T, Long> handler, long duration, TimeUnit unit, EventPriority priority) {
-        long deadline = Math.addExact(System.currentTimeMillis(), unit.toMillis(duration));
-        return registerListener(eventType, (listener, event) -> {
-            long invoked = System.currentTimeMillis();
-            if (invoked > deadline) {
-                event.getHandlers().unregister(listener);
-            } else {
-                safeInvoke(eventType, event, e -> handler.accept(e, deadline - invoked));
-            }
-        }, priority);
+        return observeFor(eventType, handler, duration, unit, priority, false);
     }
 
-    private static <T extends Event> Listener registerListener(Class<T> eventType, BiConsumer<Listener, ? super T> handler, EventPriority priority) {
-        Preconditions.checkNotNull(eventType, "eventType");
-        Preconditions.checkNotNull(handler, "handler");
+    /**
+     * Register a {@link Listener} which handles an event of the given type multiple times.
+     * It is unregistered after the given duration has passed.
+     *
+     * @param eventType       non-null event type.
+     * @param handler         non-null consumer that handles the event and informs the handler of how many milliseconds are left before the {@link Listener} unregisters itself.
+     * @param duration        how long it should be before the {@link Listener} unregisters itself.
+     * @param unit            the unit that the {@code duration} was given in.
+     * @param priority        handler priority
+     * @param ignoreCancelled whether the handler should be skipped for events that have already been cancelled.
+     * @param <T>             event type.
+     * @return non-null Bukkit {@link Listener}.
+     */
+    public static <T extends Event> Listener observeFor(Class<T> eventType, BiConsumer<? super T, Long> handler, long duration, TimeUnit unit, EventPriority priority, boolean ignoreCancelled) {
+        return getBus().observeFor(eventType, handler, duration, unit, priority, ignoreCancelled);
+    }
 
-        Listener listener = new Listener() {
-        };
-        //noinspection Convert2Lambda
-        getPlugin().getServer().getPluginManager().registerEvent(eventType, listener, priority, new EventExecutor() {
-            @Override
-            public void execute(Listener listener, Event event) throws EventException {
-                if (event.getClass() == eventType) {
-                    handler.accept(listener, eventType.cast(event));
-                }
-            }
-        }, plugin, false);
-        return listener;
-    }
-
-    private static <T extends Event> void safeInvoke(Class<T> type, T event, Consumer<? super T> handler) {
-        Preconditions.checkNotNull(handler, "handler cannot be null");
-        Preconditions.checkNotNull(event, "event cannot be null");
-        Preconditions.checkNotNull(type, "type cannot be null");
-        try {
-            handler.accept(event);
-        } catch (Throwable cause) {
-            trimStackTrace(cause);
-            internalLogger.log(Level.INFO, "An unhandled exception was intercepted whilst handling {0}: \n{1}", new Object[]{
-                    type.getName(), Throwables.getStackTraceAsString(cause)
-            });
-        }
+    /**
+     * Register a {@link Listener} which hands every event of the given type to an {@link Executor}.
+     * The handler runs after the event has been fired, so it should only read from the event.
+     *
+     * @param eventType non-null event type.
+     * @param handler   non-null consumer that handles the event.
+     * @param executor  non-null executor that runs the handler.
+     * @param <T>       event type.
+     * @return non-null Bukkit {@link Listener}.
+     */
+    public static <T extends Event> Listener observeOn(Class<T> eventType, Consumer<? super T> handler, Executor executor) {
+        return getBus().observeOn(eventType, handler, executor);
     }
 
-    private static Plugin getPlugin() {
-        if (plugin == null) {
-            plugin = JavaPlugin.getProvidingPlugin(Events.class);
-        }
-        return plugin;
+    /**
+     * Register a {@link Listener} which hands every event of the given type to an {@link Executor}.
+     * The handler runs after the event has been fired, so it should only read from the event.
+     *
+     * @param eventType       non-null event type.
+     * @param handler         non-null consumer that handles the event.
+     * @param executor        non-null executor that runs the handler.
+     * @param priority        handler priority
+     * @param ignoreCancelled whether the handler should be skipped for events that have already been cancelled.
+     * @param <T>             event type.
+     * @return non-null Bukkit {@link Listener}.
+     */
+    public static <T extends Event> Listener observeOn(Class<T> eventType, Consumer<? super T> handler, Executor executor, EventPriority priority, boolean ignoreCancelled) {
+        return getBus().observeOn(eventType, handler, executor, priority, ignoreCancelled);
     }
 
-    private static void trimStackTrace(Throwable throwable) {
-        List<StackTraceElement> elements = Lists.newArrayList(throwable.getStackTrace());
-        for (Iterator<StackTraceElement> iterator = elements.iterator(); iterator.hasNext(); ) {
-            StackTraceElement element = iterator.next();
-            try {
-                Class clazz = Class.forName(element.getClassName(), false, Thread.currentThread().getContextClassLoader());
-                if (clazz == Events.class || (clazz.isAnonymousClass() && clazz.getEnclosingClass() == Events.class)) {
-                    iterator.remove();
-                }
-            } catch (ClassNotFoundException ignored) {
-                // $COVERAGE-IGNORE$
-            }
-        }
-        throwable.setStackTrace(elements.toArray(new StackTraceElement[elements.size()]));
+    /**
+     * Register a {@link Listener} which hands every event of the given type to the {@link Executor} chosen by a router,
+     * such as the executor that owns the world or region of the event. {@link AffinityExecutor#route(Function)}
+     * creates a router that keeps the events of each key in order.
+     * The handler runs after the event has been fired, so it should only read from the event.
+     *
+     * @param eventType non-null event type.
+     * @param handler   non-null consumer that handles the event.
+     * @param router    non-null function that picks the executor for an event, the handler is run inline if it returns {@code null}.
+     * @param <T>       event type.
+     * @return non-null Bukkit {@link Listener}.
+     */
+    public static <T extends Event> Listener observeRouted(Class<T> eventType, Consumer<? super T> handler, Function<? super T, ? extends Executor> router) {
+        return getBus().observeRouted(eventType, handler, router);
+    }
+
+    /**
+     * Register a {@link Listener} which hands every event of the given type to the {@link Executor} chosen by a router,
+     * such as the executor that owns the world or region of the event. {@link AffinityExecutor#route(Function)}
+     * creates a router that keeps the events of each key in order.
+     * The handler runs after the event has been fired, so it should only read from the event.
+     *
+     * @param eventType       non-null event type.
+     * @param handler         non-null consumer that handles the event.
+     * @param router          non-null function that picks the executor for an event, the handler is run inline if it returns {@code null}.
+     * @param priority        handler priority
+     * @param ignoreCancelled whether the handler should be skipped for events that have already been cancelled.
+     * @param <T>             event type.
+     * @return non-null Bukkit {@link Listener}.
+     */
+    public static <T extends Event> Listener observeRouted(Class<T> eventType, Consumer<? super T> handler, Function<? super T, ? extends Executor> router, EventPriority priority, boolean ignoreCancelled) {
+        return getBus().observeRouted(eventType, handler, router, priority, ignoreCancelled);
+    }
+
+    /**
+     * Register a {@link Listener} which copies the fields it needs from every event of the given type into a snapshot
+     * and hands the snapshot to an {@link Executor}.
+     *
+     * @param eventType  non-null event type.
+     * @param projection non-null function that copies the fields of an event into a small immutable object, events that are projected to {@code null} are skipped.
+     * @param handler    non-null consumer that handles the snapshot.
+     * @param executor   non-null executor that runs the handler.
+     * @param <T>        event type.
+     * @param <S>        snapshot type.
+     * @return non-null Bukkit {@link Listener}.
+     * @see EventBus#observeSnapshot(Class, Function, Consumer, Executor)
+     */
+    public static <T extends Event, S> Listener observeSnapshot(Class<T> eventType, Function<? super T, ? extends S> projection, Consumer<? super S> handler, Executor executor) {
+        return getBus().observeSnapshot(eventType, projection, handler, executor);
+    }
+
+    /**
+     * Register a {@link Listener} which copies the fields it needs from every event of the given type into a snapshot
+     * and hands the snapshot to an {@link Executor}.
+     *
+     * @param eventType       non-null event type.
+     * @param projection      non-null function that copies the fields of an event into a small immutable object, events that are projected to {@code null} are skipped.
+     * @param handler         non-null consumer that handles the snapshot.
+     * @param executor        non-null executor that runs the handler.
+     * @param priority        handler priority
+     * @param ignoreCancelled whether the handler should be skipped for events that have already been cancelled.
+     * @param <T>             event type.
+     * @param <S>             snapshot type.
+     * @return non-null Bukkit {@link Listener}.
+     * @see EventBus#observeSnapshot(Class, Function, Consumer, Executor, EventPriority, boolean)
+     */
+    public static <T extends Event, S> Listener observeSnapshot(Class<T> eventType, Function<? super T, ? extends S> projection, Consumer<? super S> handler, Executor executor, EventPriority priority, boolean ignoreCancelled) {
+        return getBus().observeSnapshot(eventType, projection, handler, executor, priority, ignoreCancelled);
+    }
+
+    /**
+     * Handle at most {@code permitsPerSecond} events of the given type for each key.
+     *
+     * @param eventType        non-null event type.
+     * @param keyExtractor     non-null function that returns the key to limit an event by, events with a {@code null} key are skipped.
+     * @param permitsPerSecond number of events that each key may pass to the handler every second.
+     * @param handler          non-null consumer that handles the event.
+     * @param <T>              event type.
+     * @param <K>              key type.
+     * @return non-null Bukkit {@link Listener}, which can be used to unregister the handler.
+     * @see EventBus#observeRateLimited(Class, Function, double, Consumer)
+     */
+    public static <T extends Event, K> Listener observeRateLimited(Class<T> eventType, Function<? super T, ? extends K> keyExtractor, double permitsPerSecond, Consumer<? super T> handler) {
+        return getBus().observeRateLimited(eventType, keyExtractor, permitsPerSecond, handler);
+    }
+
+    /**
+     * Handle at most {@code permitsPerSecond} events of the given type for each key.
+     *
+     * @param eventType        non-null event type.
+     * @param keyExtractor     non-null function that returns the key to limit an event by, events with a {@code null} key are skipped.
+     * @param permitsPerSecond number of events that each key may pass to the handler every second.
+     * @param burst            number of events that a key that has been idle may pass to the handler at once.
+     * @param handler          non-null consumer that handles the event.
+     * @param priority         handler priority
+     * @param ignoreCancelled  whether events that have already been cancelled should be skipped without using a permit.
+     * @param <T>              event type.
+     * @param <K>              key type.
+     * @return non-null Bukkit {@link Listener}, which can be used to unregister the handler.
+     * @see EventBus#observeRateLimited(Class, Function, double, int, Consumer, EventPriority, boolean)
+     */
+    public static <T extends Event, K> Listener observeRateLimited(Class<T> eventType, Function<? super T, ? extends K> keyExtractor, double permitsPerSecond, int burst, Consumer<? super T> handler, EventPriority priority, boolean ignoreCancelled) {
+        return getBus().observeRateLimited(eventType, keyExtractor, permitsPerSecond, burst, handler, priority, ignoreCancelled);
+    }
+
+    /**
+     * Count the events of the given type that have not been cancelled by the time they reach {@link EventPriority#MONITOR}.
+     *
+     * @param eventType    non-null event type.
+     * @param keyExtractor non-null function that returns the key to count an event against, events with a {@code null} key are skipped.
+     * @param <T>          event type.
+     * @param <K>          key type.
+     * @return non-null aggregate containing a counter for each key.
+     * @see EventBus#count(Class, Function)
+     */
+    public static <T extends Event, K> EventAggregate<K> count(Class<T> eventType, Function<? super T, ? extends K> keyExtractor) {
+        return getBus().count(eventType, keyExtractor);
+    }
+
+    /**
+     * Sum a value from the events of the given type that have not been cancelled by the time they reach {@link EventPriority#MONITOR}.
+     *
+     * @param eventType      non-null event type.
+     * @param keyExtractor   non-null function that returns the key to add the value to, events with a {@code null} key are skipped.
+     * @param valueExtractor non-null function that returns the value of an event.
+     * @param <T>            event type.
+     * @param <K>            key type.
+     * @return non-null aggregate containing a total for each key.
+     * @see EventBus#sum(Class, Function, ToLongFunction)
+     */
+    public static <T extends Event, K> EventAggregate<K> sum(Class<T> eventType, Function<? super T, ? extends K> keyExtractor, ToLongFunction<? super T> valueExtractor) {
+        return getBus().sum(eventType, keyExtractor, valueExtractor);
+    }
+
+    /**
+     * Register every {@link Observe} method of an object, including those declared by its superclasses.
+     *
+     * @param target non-null object that declares annotated methods.
+     * @return non-null list containing a Bukkit {@link Listener} for each handler.
+     * @see EventBus#registerAll(Object)
+     */
+    public static List<Listener> registerAll(Object target) {
+        return getBus().registerAll(target);
+    }
+
+    /**
+     * Get the {@link EventPipeline} that handles events of the given type at the given priority.
+     *
+     * @param eventType       non-null event type.
+     * @param priority        non-null pipeline priority.
+     * @param ignoreCancelled whether the remaining stages should be skipped once the event has been cancelled.
+     * @param <T>             event type.
+     * @return non-null pipeline.
+     * @see EventBus#pipeline(Class, EventPriority, boolean)
+     */
+    public static <T extends Event> EventPipeline<T> pipeline(Class<T> eventType, EventPriority priority, boolean ignoreCancelled) {
+        return getBus().pipeline(eventType, priority, ignoreCancelled);
+    }
+
+    /**
+     * Set the function that copies events of the given type before they are handed to another thread.
+     *
+     * @param eventType non-null event type.
+     * @param copier    function that returns a detached copy of an event, or {@code null} to stop copying the type.
+     * @param <T>       event type.
+     * @see EventBus#registerSnapshot(Class, UnaryOperator)
+     */
+    public static <T extends Event> void registerSnapshot(Class<T> eventType, UnaryOperator<T> copier) {
+        getBus().registerSnapshot(eventType, copier);
+    }
+
+    /**
+     * Describe an {@link EventRing}, which hands events of the given type to a chain of stages on their own threads.
+     *
+     * @param eventType non-null event type.
+     * @param <T>       event type.
+     * @return non-null builder.
+     * @see EventBus#ring(Class)
+     */
+    public static <T extends Event> EventRing.Builder<T> ring(Class<T> eventType) {
+        return getBus().ring(eventType);
+    }
+
+    /**
+     * Create an {@link EventDispatcher} for events of the given type, which adapts its dispatch structure to its handlers.
+     *
+     * @param eventType       non-null event type.
+     * @param keyExtractor    non-null function that returns the key of an event, which is matched against keyed handlers.
+     * @param priority        non-null dispatcher priority.
+     * @param ignoreCancelled whether the remaining handlers should be skipped once the event has been cancelled.
+     * @param executor        non-null executor that parallel handlers are fanned out across.
+     * @param <T>             event type.
+     * @param <K>             key type.
+     * @return non-null dispatcher.
+     * @see EventBus#dispatcher(Class, Function, EventPriority, boolean, Executor)
+     */
+    public static <T extends Event, K> EventDispatcher<T, K> dispatcher(Class<T> eventType, Function<? super T, ? extends K> keyExtractor, EventPriority priority, boolean ignoreCancelled, Executor executor) {
+        return getBus().dispatcher(eventType, keyExtractor, priority, ignoreCancelled, executor);
+    }
+
+    /**
+     * Create an empty {@link SubscriptionSet}, whose handlers can be replaced in a single step when a feature reloads.
+     *
+     * @return non-null subscription set.
+     * @see EventBus#subscriptionSet()
+     */
+    public static SubscriptionSet subscriptionSet() {
+        return getBus().subscriptionSet();
     }
 
     private Events() {
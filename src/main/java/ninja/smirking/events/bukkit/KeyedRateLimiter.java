@@ -0,0 +1,119 @@
+package ninja.smirking.events.bukkit;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token buckets for an unbounded set of keys, used by {@link EventBus#observeRateLimited}.
+ * <p>
+ * Each key is stored as a single {@code long}: the time at which its bucket will be full again, as described by the
+ * generic cell rate algorithm. A bucket is updated with a compare-and-set, so keys can be acquired from the main thread
+ * and from async events at the same time. Keys whose bucket has refilled hold no information, so they are swept
+ * lazily: once a sweep is due, each caller that wins the sweep flag checks at most {@value #SWEEP_BATCH} keys before
+ * handling its own, so no single event pays for a pass over every key.
+ *
+ * @param <K> key type.
+ * @author Connor Spencer Harries
+ * @version 1.0
+ * @since 1.0
+ */
+final class KeyedRateLimiter<K> {
+    private static final long RETIRED = Long.MIN_VALUE;
+    private static final long MIN_SWEEP_INTERVAL = TimeUnit.SECONDS.toNanos(30L);
+    static final int SWEEP_BATCH = 64;
+
+    private final Map<K, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    private final AtomicLong nextSweep;
+    private final long interval;
+    private final long tolerance;
+    private final long sweepInterval;
+
+    private Iterator<Map.Entry<K, AtomicLong>> cursor;
+
+    KeyedRateLimiter(double permitsPerSecond, int burst, long now) {
+        this.interval = Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1L) / permitsPerSecond));
+        this.tolerance = interval * (burst - 1L);
+        this.sweepInterval = Math.max(MIN_SWEEP_INTERVAL, interval + tolerance);
+        this.nextSweep = new AtomicLong(now + sweepInterval);
+    }
+
+    /**
+     * Take a permit for a key if one is available.
+     *
+     * @param key non-null key.
+     * @param now current time in nanoseconds.
+     * @return {@code true} if a permit was taken.
+     */
+    boolean tryAcquire(K key, long now) {
+        if (now - nextSweep.get() >= 0L && sweeping.compareAndSet(false, true)) {
+            try {
+                sweepBatch(now);
+            } finally {
+                sweeping.set(false);
+            }
+        }
+
+        while (true) {
+            AtomicLong bucket = buckets.get(key);
+            if (bucket == null) {
+                bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+            }
+            long full = bucket.get();
+            if (full == RETIRED) {
+                // The sweeper retired this bucket after we looked it up, it is about to be removed.
+                buckets.remove(key, bucket);
+                continue;
+            }
+            long arrival = full - now > 0L ? full : now;
+            if (arrival - now > tolerance) {
+                return false;
+            }
+            if (bucket.compareAndSet(full, arrival + interval)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Get the number of keys that are currently tracked.
+     *
+     * @return tracked key count.
+     */
+    int size() {
+        return buckets.size();
+    }
+
+    void sweep(long now) {
+        for (Map.Entry<K, AtomicLong> entry : buckets.entrySet()) {
+            retire(entry, now);
+        }
+    }
+
+    private void sweepBatch(long now) {
+        if (cursor == null) {
+            cursor = buckets.entrySet().iterator();
+        }
+        for (int i = 0; i < SWEEP_BATCH; i++) {
+            if (!cursor.hasNext()) {
+                cursor = null;
+                nextSweep.set(now + sweepInterval);
+                return;
+            }
+            retire(cursor.next(), now);
+        }
+    }
+
+    private void retire(Map.Entry<K, AtomicLong> entry, long now) {
+        AtomicLong bucket = entry.getValue();
+        long full = bucket.get();
+        if (full != RETIRED && now - full >= 0L && bucket.compareAndSet(full, RETIRED)) {
+            // Only remove the retired bucket, a racing tryAcquire may already have replaced it with a fresh one
+            buckets.remove(entry.getKey(), bucket);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package ninja.smirking.events.bukkit;
+
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.function.Consumer;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An in-process {@link BridgeTransport} that delivers frames directly to the transports it has been connected to.
+ * Frames are delivered on the sending thread, which makes it suitable for tests and for bridging within one JVM.
+ *
+ * @author Connor Spencer Harries
+ * @version 1.0
+ * @since 1.0
+ */
+public final class LoopbackTransport implements BridgeTransport {
+    private final Set<LoopbackTransport> peers = new CopyOnWriteArraySet<>();
+
+    private volatile Consumer<byte[]> receiver;
+
+    /**
+     * Connect two transports so that frames sent by one are received by the other.
+     *
+     * @param peer non-null transport to connect to.
+     */
+    public void connect(LoopbackTransport peer) {
+        Preconditions.checkNotNull(peer, "peer");
+        Preconditions.checkArgument(peer != this, "a transport cannot be connected to itself");
+        peers.add(peer);
+        peer.peers.add(this);
+    }
+
+    @Override
+    public void send(byte[] frame) {
+        Preconditions.checkNotNull(frame, "frame");
+        for (LoopbackTransport peer : peers) {
+            Consumer<byte[]> consumer = peer.receiver;
+            if (consumer != null) {
+                consumer.accept(frame);
+            }
+        }
+    }
+
+    @Override
+    public void bind(Consumer<byte[]> receiver) {
+        this.receiver = Preconditions.checkNotNull(receiver, "receiver");
+    }
+
+    @Override
+    public void close() {
+        for (LoopbackTransport peer : peers) {
+            peer.peers.remove(this);
+        }
+        peers.clear();
+        receiver = null;
+    }
+}
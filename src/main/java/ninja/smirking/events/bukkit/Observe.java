@@ -0,0 +1,46 @@
+package ninja.smirking.events.bukkit;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import org.bukkit.event.EventPriority;
+
+/**
+ * Marks a method that handles every event of the type of its only parameter.
+ * <p>
+ * Annotated methods are found at compile time by {@link ObserveProcessor}, which generates an {@link EventIndex} for
+ * the class that declares them. {@link EventBus#registerAll(Object)} registers every annotated method of an object
+ * through its index without scanning methods or invoking them reflectively.
+ *
+ * @author Connor Spencer Harries
+ * @version 1.0
+ * @since 1.0
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.METHOD)
+public @interface Observe {
+    /**
+     * Get the priority of the handler.
+     *
+     * @return handler priority.
+     */
+    EventPriority priority() default EventPriority.NORMAL;
+
+    /**
+     * Determine whether the handler should be skipped for events that have already been cancelled.
+     *
+     * @return {@code true} if cancelled events should be skipped.
+     */
+    boolean ignoreCancelled() default false;
+
+    /**
+     * Get the name of a method in the same class that accepts the event and returns whether it should be handled.
+     *
+     * @return name of the filter method, or an empty string if every event should be handled.
+     */
+    String filter() default "";
+}
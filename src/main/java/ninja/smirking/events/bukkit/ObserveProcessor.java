@@ -0,0 +1,188 @@
+package ninja.smirking.events.bukkit;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates an {@link EventIndex} for every class that declares {@link Observe} methods.
+ * The processor is registered as a service, so it runs automatically when this library is on the compile classpath.
+ * Each index is named after the binary name of its class, so nested classes such as {@code A_B.C} and {@code A.B_C}
+ * get different indexes.
+ *
+ * @author Connor Spencer Harries
+ * @version 1.0
+ * @since 1.0
+ */
+public final class ObserveProcessor extends AbstractProcessor {
+    private static final String EVENT_TYPE = "org.bukkit.event.Event";
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(Observe.class.getCanonicalName());
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement eventElement = processingEnv.getElementUtils().getTypeElement(EVENT_TYPE);
+        if (eventElement == null) {
+            return false;
+        }
+
+        Map<TypeElement, List<ExecutableElement>> handlers = new LinkedHashMap<>();
+        for (Element element : roundEnv.getElementsAnnotatedWith(Observe.class)) {
+            ExecutableElement method = (ExecutableElement) element;
+            if (validate(method, eventElement.asType())) {
+                handlers.computeIfAbsent((TypeElement) method.getEnclosingElement(), key -> new ArrayList<>()).add(method);
+            }
+        }
+
+        for (Map.Entry<TypeElement, List<ExecutableElement>> entry : handlers.entrySet()) {
+            try {
+                write(entry.getKey(), entry.getValue());
+            } catch (IOException ex) {
+                error(entry.getKey(), "Unable to write event index: " + ex.getMessage());
+            }
+        }
+        return true;
+    }
+
+    private boolean validate(ExecutableElement method, TypeMirror eventType) {
+        Types types = processingEnv.getTypeUtils();
+        Element enclosing = method.getEnclosingElement();
+        if (method.getModifiers().contains(Modifier.PRIVATE) || method.getModifiers().contains(Modifier.STATIC)) {
+            return error(method, "@Observe methods must not be private or static");
+        }
+        if (method.getParameters().size() != 1 || !types.isAssignable(method.getParameters().get(0).asType(), eventType)) {
+            return error(method, "@Observe methods must have exactly one parameter that is an event");
+        }
+        for (Element type = enclosing; type.getKind() != ElementKind.PACKAGE; type = type.getEnclosingElement()) {
+            if (!type.getKind().isClass() || type.getModifiers().contains(Modifier.PRIVATE)
+                    || ((TypeElement) type).getNestingKind() == NestingKind.LOCAL || ((TypeElement) type).getNestingKind() == NestingKind.ANONYMOUS) {
+                return error(method, "@Observe methods must be declared by a class that is visible to its package");
+            }
+        }
+
+        String filter = method.getAnnotation(Observe.class).filter();
+        if (!filter.isEmpty() && findFilter(method, filter) == null) {
+            return error(method, "@Observe filter " + filter + " must be a non-private, non-static method in the same class that accepts the event and returns a boolean");
+        }
+        return true;
+    }
+
+    private ExecutableElement findFilter(ExecutableElement method, String name) {
+        Types types = processingEnv.getTypeUtils();
+        TypeMirror parameter = method.getParameters().get(0).asType();
+        for (Element element : method.getEnclosingElement().getEnclosedElements()) {
+            if (element.getKind() != ElementKind.METHOD || !element.getSimpleName().contentEquals(name)) {
+                continue;
+            }
+            ExecutableElement candidate = (ExecutableElement) element;
+            if (candidate.getModifiers().contains(Modifier.PRIVATE) || candidate.getModifiers().contains(Modifier.STATIC)) {
+                continue;
+            }
+            if (candidate.getReturnType().getKind() == TypeKind.BOOLEAN && candidate.getParameters().size() == 1
+                    && types.isAssignable(parameter, candidate.getParameters().get(0).asType())) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private void write(TypeElement type, List<ExecutableElement> methods) throws IOException {
+        Types types = processingEnv.getTypeUtils();
+        PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+        String simpleName = indexSimpleName(type, pkg);
+        String qualifiedName = pkg.isUnnamed() ? simpleName : pkg.getQualifiedName() + "." + simpleName;
+        String target = types.erasure(type.asType()).toString();
+
+        StringBuilder source = new StringBuilder();
+        if (!pkg.isUnnamed()) {
+            source.append("package ").append(pkg.getQualifiedName()).append(";\n\n");
+        }
+        source.append("/**\n * Generated by ").append(ObserveProcessor.class.getName()).append(", do not edit.\n */\n");
+        source.append("public final class ").append(simpleName).append(" implements ninja.smirking.events.bukkit.EventIndex<").append(target).append("> {\n");
+        source.append("    @Override\n");
+        source.append("    public java.util.List<org.bukkit.event.Listener> register(ninja.smirking.events.bukkit.EventBus bus, ").append(target).append(" target, java.util.Set<String> registered) {\n");
+        source.append("        java.util.List<org.bukkit.event.Listener> listeners = new java.util.ArrayList<>(").append(methods.size()).append(");\n");
+        for (ExecutableElement method : methods) {
+            Observe observe = method.getAnnotation(Observe.class);
+            String eventType = types.erasure(method.getParameters().get(0).asType()).toString();
+            String priority = "org.bukkit.event.EventPriority." + observe.priority().name();
+            String handler = "event -> target." + method.getSimpleName() + "(event)";
+            source.append("        if (registered.add(\"").append(handlerKey(type, method)).append("\")) {\n");
+            source.append("            listeners.add(bus.");
+            if (observe.filter().isEmpty()) {
+                source.append("observeAll(").append(eventType).append(".class, ").append(handler);
+            } else {
+                source.append("observeIf(").append(eventType).append(".class, ").append(handler)
+                        .append(", event -> target.").append(observe.filter()).append("(event)");
+            }
+            source.append(", ").append(priority).append(", ").append(observe.ignoreCancelled()).append("));\n");
+            source.append("        }\n");
+        }
+        source.append("        return listeners;\n");
+        source.append("    }\n");
+        source.append("}\n");
+
+        try (Writer writer = processingEnv.getFiler().createSourceFile(qualifiedName, type).openWriter()) {
+            writer.write(source.toString());
+        }
+    }
+
+    private String indexSimpleName(TypeElement type, PackageElement pkg) {
+        String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+        return (pkg.isUnnamed() ? binaryName : binaryName.substring(pkg.getQualifiedName().length() + 1)) + EventIndex.SUFFIX;
+    }
+
+    private String handlerKey(TypeElement type, ExecutableElement method) {
+        // Key a handler by the highest annotated method that it overrides, so a subclass and its superclass share the key
+        Elements elements = processingEnv.getElementUtils();
+        ExecutableElement root = method;
+        for (TypeMirror superclass = type.getSuperclass(); superclass.getKind() == TypeKind.DECLARED; ) {
+            TypeElement superType = (TypeElement) ((DeclaredType) superclass).asElement();
+            for (ExecutableElement candidate : ElementFilter.methodsIn(superType.getEnclosedElements())) {
+                if (candidate.getAnnotation(Observe.class) != null && elements.overrides(method, candidate, type)) {
+                    root = candidate;
+                }
+            }
+            superclass = superType.getSuperclass();
+        }
+        TypeMirror parameter = processingEnv.getTypeUtils().erasure(root.getParameters().get(0).asType());
+        return elements.getBinaryName((TypeElement) root.getEnclosingElement()) + "#" + root.getSimpleName() + "(" + parameter + ")";
+    }
+
+    private boolean error(Element element, String message) {
+        Messager messager = processingEnv.getMessager();
+        messager.printMessage(Diagnostic.Kind.ERROR, message, element);
+        return false;
+    }
+}
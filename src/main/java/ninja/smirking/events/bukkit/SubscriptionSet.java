@@ -0,0 +1,303 @@
+package ninja.smirking.events.bukkit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import com.google.common.base.Preconditions;
+import org.bukkit.event.Cancellable;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+
+/**
+ * A group of handlers that can be replaced as a whole without a gap, which makes it suitable for reloadable features.
+ * <p>
+ * A new set of handlers is described with a {@link Builder}, which does not touch Bukkit and can be filled on any thread.
+ * {@link #swap(Builder)} then publishes it in a single step: events that are already being dispatched finish with the
+ * old handlers at every priority and every later event uses the new ones. The set registers one Bukkit listener for each
+ * event type and priority that it has ever handled, plus one at {@link EventPriority#MONITOR} that releases the handlers
+ * an event was pinned to, so a reload that handles the same events does not rebake any {@code HandlerList}.
+ * <p>
+ * Sets are created by {@link EventBus#subscriptionSet()}.
+ *
+ * @author Connor Spencer Harries
+ * @version 1.0
+ * @since 1.0
+ */
+public final class SubscriptionSet implements Listener {
+    private static final Generation EMPTY = new Generation(Collections.emptyMap());
+
+    private final Map<Class<? extends Event>, EnumSet<EventPriority>> attached = new HashMap<>();
+    private final ThreadLocal<Map<Event, Generation>> pinned = ThreadLocal.withInitial(IdentityHashMap::new);
+    private final EventBus bus;
+
+    private volatile Generation current = EMPTY;
+    private boolean closed;
+
+    SubscriptionSet(EventBus bus) {
+        this.bus = bus;
+    }
+
+    /**
+     * Create an empty builder.
+     *
+     * @return non-null builder.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Replace every handler in the set with the handlers of a builder.
+     *
+     * @param builder non-null builder describing the new handlers, it can be reused or discarded afterwards.
+     * @return non-null future that completes once no event is being dispatched to the old handlers.
+     */
+    public synchronized CompletableFuture<Void> swap(Builder builder) {
+        Preconditions.checkNotNull(builder, "builder");
+        Preconditions.checkState(!closed, "subscription set has been closed");
+
+        Generation next = builder.build();
+        for (Map.Entry<Class<? extends Event>, Subscription[][]> entry : next.handlers.entrySet()) {
+            Subscription[][] byPriority = entry.getValue();
+            for (EventPriority priority : EventPriority.values()) {
+                if (byPriority[priority.ordinal()] != null) {
+                    attach(entry.getKey(), priority);
+                }
+            }
+        }
+        return retire(next);
+    }
+
+    /**
+     * Remove every handler and unregister the set from Bukkit.
+     *
+     * @return non-null future that completes once no event is being dispatched to the old handlers.
+     */
+    public synchronized CompletableFuture<Void> close() {
+        if (closed) {
+            return CompletableFuture.completedFuture(null);
+        }
+        closed = true;
+        CompletableFuture<Void> retired = retire(EMPTY);
+        for (Class<? extends Event> eventType : attached.keySet()) {
+            bus.getHandlerList(eventType).unregister(this);
+        }
+        attached.clear();
+        return retired;
+    }
+
+    /**
+     * Get the number of handlers in the set.
+     *
+     * @return handler count.
+     */
+    public int size() {
+        return current.size;
+    }
+
+    private CompletableFuture<Void> retire(Generation next) {
+        Generation previous = current;
+        current = next;
+        if (previous == EMPTY) {
+            return CompletableFuture.completedFuture(null);
+        }
+        previous.retired = true;
+        if (previous.active.get() == 0) {
+            previous.drained.complete(null);
+        }
+        return previous.drained;
+    }
+
+    private void attach(Class<? extends Event> eventType, EventPriority priority) {
+        EnumSet<EventPriority> priorities = attached.get(eventType);
+        if (priorities == null) {
+            // Registered first, so every event that reaches the set also reaches the listener that releases its generation
+            attached.put(eventType, priorities = EnumSet.of(EventPriority.MONITOR));
+            register(eventType, EventPriority.MONITOR);
+        }
+        if (priorities.add(priority)) {
+            register(eventType, priority);
+        }
+    }
+
+    private void register(Class<? extends Event> eventType, EventPriority priority) {
+        bus.register(eventType, this, EventTopology.Mode.SUBSCRIPTION_SET, (listener, event) -> dispatch(eventType, priority, event), priority, false);
+    }
+
+    private void dispatch(Class<? extends Event> eventType, EventPriority priority, Event event) {
+        // Bukkit fires each event on a single thread, so the generation it was pinned to at its first priority is kept
+        // in a thread local until the monitor listener releases it
+        Map<Event, Generation> events = pinned.get();
+        boolean release = priority == EventPriority.MONITOR;
+        Generation generation = release ? events.remove(event) : events.get(event);
+        if (generation == null) {
+            generation = enter();
+            if (!release) {
+                events.put(event, generation);
+            }
+        }
+
+        try {
+            Subscription[][] byPriority = generation.handlers.get(eventType);
+            Subscription[] subscriptions = byPriority == null ? null : byPriority[priority.ordinal()];
+            if (subscriptions == null) {
+                return;
+            }
+            for (Subscription subscription : subscriptions) {
+                if (subscription.ignoreCancelled && event instanceof Cancellable && ((Cancellable) event).isCancelled()) {
+                    continue;
+                }
+                EventBus.safeInvoke(eventType, event, subscription.handler);
+            }
+        } finally {
+            if (release) {
+                generation.exit();
+            }
+        }
+    }
+
+    private Generation enter() {
+        while (true) {
+            Generation generation = current;
+            generation.active.incrementAndGet();
+            if (generation == current) {
+                return generation;
+            }
+            generation.exit();
+        }
+    }
+
+    /**
+     * Describes the handlers of a {@link SubscriptionSet}. Builders do not touch Bukkit, so they can be filled
+     * on any thread, but they are not safe for use by several threads at once.
+     */
+    public static final class Builder {
+        private final Map<Class<? extends Event>, List<List<Subscription>>> handlers = new HashMap<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Handle every event of the given type.
+         *
+         * @param eventType non-null event type.
+         * @param handler   non-null consumer that handles the event.
+         * @param <T>       event type.
+         * @return this builder.
+         */
+        public <T extends Event> Builder observe(Class<T> eventType, Consumer<? super T> handler) {
+            return observe(eventType, handler, EventPriority.NORMAL, false);
+        }
+
+        /**
+         * Handle every event of the given type.
+         *
+         * @param eventType       non-null event type.
+         * @param handler         non-null consumer that handles the event.
+         * @param priority        handler priority
+         * @param ignoreCancelled whether the handler should be skipped for events that have already been cancelled.
+         * @param <T>             event type.
+         * @return this builder.
+         */
+        public <T extends Event> Builder observe(Class<T> eventType, Consumer<? super T> handler, EventPriority priority, boolean ignoreCancelled) {
+            Preconditions.checkNotNull(handler, "handler");
+            return add(eventType, event -> handler.accept(eventType.cast(event)), priority, ignoreCancelled);
+        }
+
+        /**
+         * Handle the events of the given type that pass a {@link Predicate}.
+         *
+         * @param eventType       non-null event type.
+         * @param handler         non-null consumer that handles the event.
+         * @param test            non-null predicate that determines whether the event should be passed to the handler.
+         * @param priority        handler priority
+         * @param ignoreCancelled whether the handler should be skipped for events that have already been cancelled.
+         * @param <T>             event type.
+         * @return this builder.
+         */
+        public <T extends Event> Builder observeIf(Class<T> eventType, Consumer<? super T> handler, Predicate<T> test, EventPriority priority, boolean ignoreCancelled) {
+            Preconditions.checkNotNull(handler, "handler");
+            Preconditions.checkNotNull(test, "test");
+            return add(eventType, event -> {
+                T casted = eventType.cast(event);
+                if (test.test(casted)) {
+                    handler.accept(casted);
+                }
+            }, priority, ignoreCancelled);
+        }
+
+        private Builder add(Class<? extends Event> eventType, Consumer<Event> handler, EventPriority priority, boolean ignoreCancelled) {
+            Preconditions.checkNotNull(eventType, "eventType");
+            Preconditions.checkNotNull(priority, "priority");
+            List<List<Subscription>> byPriority = handlers.computeIfAbsent(eventType, key -> {
+                List<List<Subscription>> lists = new ArrayList<>(EventPriority.values().length);
+                for (int i = 0; i < EventPriority.values().length; i++) {
+                    lists.add(new ArrayList<>());
+                }
+                return lists;
+            });
+            byPriority.get(priority.ordinal()).add(new Subscription(handler, ignoreCancelled));
+            return this;
+        }
+
+        private Generation build() {
+            Map<Class<? extends Event>, Subscription[][]> built = new HashMap<>();
+            for (Map.Entry<Class<? extends Event>, List<List<Subscription>>> entry : handlers.entrySet()) {
+                Subscription[][] byPriority = new Subscription[EventPriority.values().length][];
+                for (int i = 0; i < byPriority.length; i++) {
+                    List<Subscription> subscriptions = entry.getValue().get(i);
+                    if (!subscriptions.isEmpty()) {
+                        byPriority[i] = subscriptions.toArray(new Subscription[subscriptions.size()]);
+                    }
+                }
+                built.put(entry.getKey(), byPriority);
+            }
+            return new Generation(built);
+        }
+    }
+
+    private static final class Subscription {
+        private final Consumer<Event> handler;
+        private final boolean ignoreCancelled;
+
+        private Subscription(Consumer<Event> handler, boolean ignoreCancelled) {
+            this.handler = handler;
+            this.ignoreCancelled = ignoreCancelled;
+        }
+    }
+
+    private static final class Generation {
+        private final Map<Class<? extends Event>, Subscription[][]> handlers;
+        private final AtomicInteger active = new AtomicInteger();
+        private final CompletableFuture<Void> drained = new CompletableFuture<>();
+        private final int size;
+
+        private volatile boolean retired;
+
+        private Generation(Map<Class<? extends Event>, Subscription[][]> handlers) {
+            this.handlers = handlers;
+            int count = 0;
+            for (Subscription[][] byPriority : handlers.values()) {
+                count += Arrays.stream(byPriority).mapToInt(subscriptions -> subscriptions == null ? 0 : subscriptions.length).sum();
+            }
+            this.size = count;
+        }
+
+        private void exit() {
+            if (active.decrementAndGet() == 0 && retired) {
+                drained.complete(null);
+            }
+        }
+    }
+}
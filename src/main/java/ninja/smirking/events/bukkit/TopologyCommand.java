@@ -0,0 +1,74 @@
+package ninja.smirking.events.bukkit;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import com.google.common.base.Preconditions;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * A command that reports the handlers attached to the event types used by an {@link EventBus}, which helps to find the
+ * cause of lag that comes from listeners building up. The command has to be declared in {@code plugin.yml}, after which
+ * it can be registered from {@code onEnable}:
+ * <pre>
+ * getCommand("events").setExecutor(new TopologyCommand(Events.getBus()));
+ * </pre>
+ * It accepts the following arguments:
+ * <ul>
+ * <li>no arguments: send a summary of every event type to the sender.</li>
+ * <li>{@code json}: write every handler to a file in the data folder of the plugin.</li>
+ * <li>{@code profile on|off}: start or stop measuring the cost of each handler.</li>
+ * <li>{@code reset}: send a summary and reset the measured costs.</li>
+ * </ul>
+ *
+ * @author Connor Spencer Harries
+ * @version 1.0
+ * @since 1.0
+ */
+public final class TopologyCommand implements CommandExecutor {
+    private final EventBus bus;
+
+    /**
+     * Create a command that reports on the given bus.
+     *
+     * @param bus non-null bus to report on.
+     */
+    public TopologyCommand(EventBus bus) {
+        this.bus = Preconditions.checkNotNull(bus, "bus");
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (args.length == 0 || (args.length == 1 && args[0].equalsIgnoreCase("reset"))) {
+            for (String line : bus.topology(args.length == 1).summarize()) {
+                sender.sendMessage(line);
+            }
+            return true;
+        }
+
+        if (args.length == 1 && args[0].equalsIgnoreCase("json")) {
+            Plugin plugin = bus.getPlugin();
+            String name = "topology-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".json";
+            bus.writeTopology(new File(plugin.getDataFolder(), name)).whenComplete((file, cause) -> {
+                String message = cause == null ? "Event topology written to " + file.getPath() : "Unable to write event topology: " + cause.getMessage();
+                plugin.getServer().getScheduler().runTask(plugin, () -> sender.sendMessage(message));
+            });
+            return true;
+        }
+
+        if (args.length == 2 && args[0].equalsIgnoreCase("profile")) {
+            boolean enable = args[1].equalsIgnoreCase("on");
+            if (!enable && !args[1].equalsIgnoreCase("off")) {
+                return false;
+            }
+            bus.setProfiling(enable);
+            sender.sendMessage("Event profiling " + (enable ? "enabled" : "disabled"));
+            return true;
+        }
+        return false;
+    }
+}
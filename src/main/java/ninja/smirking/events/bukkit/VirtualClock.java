@@ -0,0 +1,52 @@
+package ninja.smirking.events.bukkit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An {@link EventClock} that only moves when it is told to, which makes timed handlers deterministic.
+ * Advancing the clock by an hour takes no longer than advancing it by a nanosecond, so expiry can be tested at any scale.
+ *
+ * @author Connor Spencer Harries
+ * @version 1.0
+ * @since 1.0
+ */
+public final class VirtualClock implements EventClock {
+    private final AtomicLong time;
+
+    /**
+     * Create a clock that starts at zero.
+     */
+    public VirtualClock() {
+        this(0L);
+    }
+
+    /**
+     * Create a clock that starts at the given time.
+     *
+     * @param start initial time in nanoseconds.
+     */
+    public VirtualClock(long start) {
+        this.time = new AtomicLong(start);
+    }
+
+    /**
+     * Move the clock forwards.
+     *
+     * @param duration non-negative amount of time to move the clock by.
+     * @param unit     the unit that the {@code duration} was given in.
+     * @return new time in nanoseconds.
+     */
+    public long advance(long duration, TimeUnit unit) {
+        Preconditions.checkArgument(duration >= 0L, "duration cannot be negative");
+        Preconditions.checkNotNull(unit, "unit");
+        return time.addAndGet(unit.toNanos(duration));
+    }
+
+    @Override
+    public long nanoTime() {
+        return time.get();
+    }
+}
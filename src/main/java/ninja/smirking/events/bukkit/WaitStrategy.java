@@ -0,0 +1,170 @@
+package ninja.smirking.events.bukkit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongUnaryOperator;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Determines how the stages of an {@link EventRing} wait for events. Strategies that wait more actively have lower
+ * latency and use more CPU: {@link #busySpin()} never gives up its core, whereas {@link #blocking()} only wakes up
+ * when it is signalled.
+ *
+ * @author Connor Spencer Harries
+ * @version 1.0
+ * @since 1.0
+ */
+public interface WaitStrategy {
+    /**
+     * Wait until a sequence is available.
+     *
+     * @param sequence sequence that the stage needs.
+     * @param gate     function that returns the highest available sequence, given the sequence that the stage needs.
+     * @return highest available sequence, which is at least {@code sequence}.
+     * @throws InterruptedException if the stage was interrupted whilst waiting.
+     */
+    long waitFor(long sequence, LongUnaryOperator gate) throws InterruptedException;
+
+    /**
+     * Wake up every stage that is waiting, called whenever a sequence becomes available.
+     */
+    void signalAll();
+
+    /**
+     * Create a strategy that checks for new events in a tight loop. It has the lowest latency, but it occupies a core
+     * for each stage even whilst no events are fired.
+     *
+     * @return non-null wait strategy.
+     */
+    static WaitStrategy busySpin() {
+        return new WaitStrategy() {
+            @Override
+            public long waitFor(long sequence, LongUnaryOperator gate) throws InterruptedException {
+                long available;
+                while ((available = gate.applyAsLong(sequence)) < sequence) {
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                }
+                return available;
+            }
+
+            @Override
+            public void signalAll() {
+            }
+        };
+    }
+
+    /**
+     * Create a strategy that spins for a short while and then yields its core to other threads between checks.
+     *
+     * @return non-null wait strategy.
+     */
+    static WaitStrategy yielding() {
+        return new WaitStrategy() {
+            @Override
+            public long waitFor(long sequence, LongUnaryOperator gate) throws InterruptedException {
+                long available;
+                int attempts = 0;
+                while ((available = gate.applyAsLong(sequence)) < sequence) {
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                    if (++attempts > 100) {
+                        Thread.yield();
+                    }
+                }
+                return available;
+            }
+
+            @Override
+            public void signalAll() {
+            }
+        };
+    }
+
+    /**
+     * Create a strategy that spins, then yields, then parks for the given time between checks.
+     *
+     * @param park non-negative time to park between checks.
+     * @param unit the unit that {@code park} was given in.
+     * @return non-null wait strategy.
+     */
+    static WaitStrategy sleeping(long park, TimeUnit unit) {
+        Preconditions.checkArgument(park >= 0L, "park cannot be negative");
+        long nanos = unit.toNanos(park);
+        return new WaitStrategy() {
+            @Override
+            public long waitFor(long sequence, LongUnaryOperator gate) throws InterruptedException {
+                long available;
+                int attempts = 0;
+                while ((available = gate.applyAsLong(sequence)) < sequence) {
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                    if (++attempts > 200) {
+                        LockSupport.parkNanos(nanos);
+                    } else if (attempts > 100) {
+                        Thread.yield();
+                    }
+                }
+                return available;
+            }
+
+            @Override
+            public void signalAll() {
+            }
+        };
+    }
+
+    /**
+     * Create a strategy that waits on a lock until it is signalled, which uses no CPU whilst no events are fired.
+     * Signals only take the lock whilst a stage is actually waiting, otherwise they cost a single atomic exchange.
+     *
+     * @return non-null wait strategy.
+     */
+    static WaitStrategy blocking() {
+        return new WaitStrategy() {
+            private final ReentrantLock lock = new ReentrantLock();
+            private final Condition available = lock.newCondition();
+            private final AtomicBoolean signalNeeded = new AtomicBoolean();
+
+            @Override
+            public long waitFor(long sequence, LongUnaryOperator gate) throws InterruptedException {
+                long highest = gate.applyAsLong(sequence);
+                if (highest < sequence) {
+                    lock.lockInterruptibly();
+                    try {
+                        while (true) {
+                            // Raise the flag before checking again, so a signal sent after the check is not missed
+                            signalNeeded.getAndSet(true);
+                            if ((highest = gate.applyAsLong(sequence)) >= sequence) {
+                                break;
+                            }
+                            available.await();
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+                return highest;
+            }
+
+            @Override
+            public void signalAll() {
+                if (signalNeeded.getAndSet(false)) {
+                    lock.lock();
+                    try {
+                        available.signalAll();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,281 @@
+package ninja.smirking.events.bukkit;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.bukkit.Server;
+import org.bukkit.event.Event;
+import org.bukkit.event.HandlerList;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.mockito.Matchers;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.testng.PowerMockTestCase;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that confirm {@link EventBridge} moves events between two connected bridges.
+ *
+ * @author Connor Spencer Harries
+ * @version 1.0
+ * @since 1.0
+ */
+@PrepareForTest({JavaPlugin.class})
+public class EventBridgeTest extends PowerMockTestCase {
+    private JavaPlugin plugin;
+    private Server server;
+
+    @BeforeMethod
+    public void tinker() throws Exception {
+        PowerMockito.mockStatic(JavaPlugin.class);
+
+        server = new MockServer();
+        plugin = new MockPlugin(server);
+        PowerMockito.when(JavaPlugin.getProvidingPlugin(Matchers.eq(Events.class))).thenReturn(plugin);
+    }
+
+    @Test
+    public void testBridge() throws Exception {
+        LoopbackTransport left = new LoopbackTransport();
+        LoopbackTransport right = new LoopbackTransport();
+        left.connect(right);
+
+        List<String> local = new CopyOnWriteArrayList<>();
+        List<String> remote = new CopyOnWriteArrayList<>();
+        Events.observeAll(ChatEvent.class, event -> (EventBridge.isRemote(event) ? remote : local).add(event.getMessage()));
+
+        try (EventBridge sender = new EventBridge(plugin, left).bridge(ChatEvent.class, new ChatCodec());
+             EventBridge receiver = new EventBridge(plugin, right).bridge(ChatEvent.class, new ChatCodec())) {
+            server.getPluginManager().callEvent(new ChatEvent("Hello"));
+            server.getPluginManager().callEvent(new ChatEvent("World"));
+            assertTrue("Events should not be sent before the batch is flushed", remote.isEmpty());
+
+            sender.flush();
+            assertEquals("Both events should have been re-emitted", 2, remote.size());
+            assertEquals("Hello", remote.get(0));
+            assertEquals("World", remote.get(1));
+
+            // Both bridges share one server here, so the receiver has captured the local events as well
+            receiver.flush();
+            assertEquals("The receiver should only have sent the local events", 4, remote.size());
+
+            sender.flush();
+            assertEquals("Re-emitted events should not be bridged again", 4, remote.size());
+            assertEquals("Local events should only have been handled once", 2, local.size());
+        }
+    }
+
+    @Test
+    public void testUnknownSchema() throws Exception {
+        LoopbackTransport left = new LoopbackTransport();
+        LoopbackTransport right = new LoopbackTransport();
+        left.connect(right);
+
+        List<String> remote = new CopyOnWriteArrayList<>();
+        Events.observeAll(ChatEvent.class, event -> {
+            if (EventBridge.isRemote(event)) {
+                remote.add(event.getMessage());
+            }
+        });
+
+        try (EventBridge sender = new EventBridge(plugin, left).bridge(ChatEvent.class, new ChatCodec());
+             EventBridge ignored = new EventBridge(plugin, right)) {
+            server.getPluginManager().callEvent(new ChatEvent("Hello"));
+            sender.flush();
+            assertFalse("The receiver has not bridged ChatEvent", remote.contains("Hello"));
+        }
+    }
+
+    @Test
+    public void testFailedSend() throws Exception {
+        LoopbackTransport left = new LoopbackTransport();
+        LoopbackTransport right = new LoopbackTransport();
+        left.connect(right);
+        FlakyTransport flaky = new FlakyTransport(left);
+
+        List<String> remote = new CopyOnWriteArrayList<>();
+        Events.observeAll(ChatEvent.class, event -> {
+            if (EventBridge.isRemote(event)) {
+                remote.add(event.getMessage());
+            }
+        });
+
+        try (EventBridge sender = new EventBridge(plugin, flaky).bridge(ChatEvent.class, new ChatCodec());
+             EventBridge receiver = new EventBridge(plugin, right).bridge(ChatEvent.class, new ChatCodec())) {
+            flaky.failing = true;
+            server.getPluginManager().callEvent(new ChatEvent("Lost"));
+            sender.flush();
+            assertTrue("The frame should have been dropped", remote.isEmpty());
+
+            flaky.failing = false;
+            server.getPluginManager().callEvent(new ChatEvent("Hello"));
+            sender.flush();
+            assertTrue("The schema should have been announced again after the failed send", remote.contains("Hello"));
+        }
+    }
+
+    @Test
+    public void testMalformedPayload() throws Exception {
+        LoopbackTransport left = new LoopbackTransport();
+        LoopbackTransport right = new LoopbackTransport();
+        left.connect(right);
+
+        List<String> remote = new CopyOnWriteArrayList<>();
+        Events.observeAll(ChatEvent.class, event -> {
+            if (EventBridge.isRemote(event)) {
+                remote.add(event.getMessage());
+            }
+        });
+
+        try (EventBridge sender = new EventBridge(plugin, left).bridge(ChatEvent.class, new ChatCodec());
+             EventBridge receiver = new EventBridge(plugin, right).bridge(ChatEvent.class, new ChatCodec() {
+                 @Override
+                 public ChatEvent decode(DataInput input) throws IOException {
+                     ChatEvent event = super.decode(input);
+                     if (event.getMessage().equals("Broken")) {
+                         throw new IllegalArgumentException("Broken");
+                     }
+                     return event;
+                 }
+             })) {
+            server.getPluginManager().callEvent(new ChatEvent("Broken"));
+            server.getPluginManager().callEvent(new ChatEvent("Hello"));
+            sender.flush();
+            assertFalse("The malformed payload should have been skipped", remote.contains("Broken"));
+            assertTrue("The rest of the frame should still have been emitted", remote.contains("Hello"));
+        }
+    }
+
+    @Test
+    public void testLateJoiner() throws Exception {
+        LoopbackTransport left = new LoopbackTransport();
+        LoopbackTransport right = new LoopbackTransport();
+
+        List<String> remote = new CopyOnWriteArrayList<>();
+        Events.observeAll(ChatEvent.class, event -> {
+            if (EventBridge.isRemote(event)) {
+                remote.add(event.getMessage());
+            }
+        });
+
+        try (EventBridge sender = new EventBridge(plugin, left).bridge(ChatEvent.class, new ChatCodec())) {
+            server.getPluginManager().callEvent(new ChatEvent("Nobody"));
+            sender.flush();
+
+            left.connect(right);
+            try (EventBridge receiver = new EventBridge(plugin, right).bridge(ChatEvent.class, new ChatCodec())) {
+                server.getPluginManager().callEvent(new ChatEvent("Lost"));
+                sender.flush();
+                assertTrue("The receiver has not learnt the event type yet", remote.isEmpty());
+
+                server.getPluginManager().callEvent(new ChatEvent("Hello"));
+                sender.flush();
+                assertTrue("The sender should have announced its event types when asked", remote.contains("Hello"));
+            }
+        }
+    }
+
+    @Test
+    public void testPeerEviction() throws Exception {
+        VirtualClock clock = new VirtualClock();
+        LoopbackTransport right = new LoopbackTransport();
+        try (EventBridge receiver = new EventBridge(new EventBus(plugin, clock), right).bridge(ChatEvent.class, new ChatCodec())) {
+            for (int i = 0; i < 2; i++) {
+                LoopbackTransport left = new LoopbackTransport();
+                left.connect(right);
+                try (EventBridge sender = new EventBridge(plugin, left).bridge(ChatEvent.class, new ChatCodec())) {
+                    server.getPluginManager().callEvent(new ChatEvent("Hello"));
+                    sender.flush();
+                }
+            }
+            assertEquals(2, receiver.getPeerCount());
+
+            clock.advance(2L, TimeUnit.MINUTES);
+            LoopbackTransport left = new LoopbackTransport();
+            left.connect(right);
+            try (EventBridge sender = new EventBridge(plugin, left).bridge(ChatEvent.class, new ChatCodec())) {
+                server.getPluginManager().callEvent(new ChatEvent("Hello"));
+                sender.flush();
+            }
+            assertEquals("Servers that have gone quiet should have been forgotten", 1, receiver.getPeerCount());
+        }
+    }
+
+    @AfterMethod
+    public void after() throws Exception {
+        HandlerList.unregisterAll(plugin);
+    }
+
+    static class ChatEvent extends Event {
+        private static final HandlerList handlers = new HandlerList();
+
+        private final String message;
+
+        ChatEvent(String message) {
+            this.message = message;
+        }
+
+        public static HandlerList getHandlerList() {
+            return handlers;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public HandlerList getHandlers() {
+            return handlers;
+        }
+    }
+
+    static class FlakyTransport implements BridgeTransport {
+        private final BridgeTransport delegate;
+        private volatile boolean failing;
+
+        FlakyTransport(BridgeTransport delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void send(byte[] frame) throws IOException {
+            if (failing) {
+                throw new IOException("Transport is down");
+            }
+            delegate.send(frame);
+        }
+
+        @Override
+        public void bind(Consumer<byte[]> receiver) {
+            delegate.bind(receiver);
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+
+    static class ChatCodec implements EventCodec<ChatEvent> {
+        @Override
+        public void encode(ChatEvent event, DataOutput output) throws IOException {
+            output.writeUTF(event.getMessage());
+        }
+
+        @Override
+        public ChatEvent decode(DataInput input) throws IOException {
+            return new ChatEvent(input.readUTF());
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package ninja.smirking.events.bukkit;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.IntFunction;
+
+import com.google.common.base.Preconditions;
+import org.bukkit.Server;
+import org.bukkit.event.Cancellable;
+import org.bukkit.event.Event;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+
+/**
+ * Fires a configurable storm of events at a {@link Server} from several threads whilst handlers are registered and
+ * unregistered, then reports the dispatch latency percentiles and allocation rate.
+ * Event keys follow a Zipf distribution so that a few keys are much hotter than the rest, like players on a live server.
+ *
+ * @author Connor Spencer Harries
+ * @version 1.0
+ * @since 1.0
+ */
+final class EventStorm {
+    private final Server server;
+    private final EventBus bus;
+    private final List<Mix> mix;
+    private final BiFunction<EventBus, Integer, Listener> subscriber;
+    private final int threads;
+    private final int eventsPerThread;
+    private final int subscribers;
+    private final int churnInterval;
+    private final double[] keyDistribution;
+    private final LongAdder handled = new LongAdder();
+
+    private EventStorm(Builder builder) {
+        this.server = builder.server;
+        this.bus = builder.bus;
+        this.mix = new ArrayList<>(builder.mix);
+        this.subscriber = builder.subscriber == null ? this::defaultSubscriber : builder.subscriber;
+        this.threads = builder.threads;
+        this.eventsPerThread = builder.eventsPerThread;
+        this.subscribers = builder.subscribers;
+        this.churnInterval = builder.churnInterval;
+        this.keyDistribution = zipf(builder.keys, builder.skew);
+    }
+
+    static Builder builder(Server server, EventBus bus) {
+        return new Builder(server, bus);
+    }
+
+    /**
+     * Get the number of times that the default subscriber has handled an event.
+     *
+     * @return handled event count.
+     */
+    long getHandled() {
+        return handled.sum();
+    }
+
+    Report run() throws InterruptedException {
+        List<Listener> initial = new ArrayList<>(subscribers);
+        for (int i = 0; i < subscribers; i++) {
+            initial.add(subscriber.apply(bus, nextKey(ThreadLocalRandom.current())));
+        }
+
+        long[][] latencies = new long[threads][];
+        long[] allocated = new long[threads];
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            int index = i;
+            Thread thread = new Thread(() -> {
+                try {
+                    // Events and the latency buffer are created up front so only dispatch and churn are measured
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    Event[] events = new Event[eventsPerThread];
+                    int[] keys = new int[eventsPerThread];
+                    for (int j = 0; j < eventsPerThread; j++) {
+                        events[j] = nextEvent(random).apply(nextKey(random));
+                        keys[j] = nextKey(random);
+                    }
+                    latencies[index] = new long[eventsPerThread];
+
+                    start.await();
+                    long before = allocatedBytes();
+                    storm(events, keys, latencies[index]);
+                    allocated[index] = allocatedBytes() - before;
+                } catch (Throwable cause) {
+                    failure.compareAndSet(null, cause);
+                } finally {
+                    finish.countDown();
+                }
+            }, "EventStorm-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        long began = System.nanoTime();
+        start.countDown();
+        finish.await();
+        long elapsed = System.nanoTime() - began;
+        initial.forEach(HandlerList::unregisterAll);
+
+        if (failure.get() != null) {
+            throw new IllegalStateException("Storm thread failed", failure.get());
+        }
+
+        long[] merged = new long[threads * eventsPerThread];
+        for (int i = 0; i < threads; i++) {
+            System.arraycopy(latencies[i], 0, merged, i * eventsPerThread, eventsPerThread);
+        }
+        Arrays.sort(merged);
+        return new Report(merged, elapsed, Arrays.stream(allocated).sum());
+    }
+
+    private void storm(Event[] events, int[] keys, long[] latencies) {
+        Deque<Listener> churned = new ArrayDeque<>();
+        for (int i = 0; i < events.length; i++) {
+            if (churnInterval > 0 && i % churnInterval == 0) {
+                churned.addLast(subscriber.apply(bus, keys[i]));
+                if (churned.size() > 1) {
+                    HandlerList.unregisterAll(churned.removeFirst());
+                }
+            }
+
+            long began = System.nanoTime();
+            server.getPluginManager().callEvent(events[i]);
+            latencies[i] = System.nanoTime() - began;
+        }
+        churned.forEach(HandlerList::unregisterAll);
+    }
+
+    private IntFunction<? extends Event> nextEvent(ThreadLocalRandom random) {
+        int total = 0;
+        for (Mix entry : mix) {
+            total += entry.weight;
+        }
+        int pick = random.nextInt(total);
+        for (Mix entry : mix) {
+            pick -= entry.weight;
+            if (pick < 0) {
+                return entry.factory;
+            }
+        }
+        throw new AssertionError();
+    }
+
+    private int nextKey(ThreadLocalRandom random) {
+        int index = Arrays.binarySearch(keyDistribution, random.nextDouble());
+        return index < 0 ? Math.min(-index - 1, keyDistribution.length - 1) : index;
+    }
+
+    private Listener defaultSubscriber(EventBus bus, int key) {
+        switch (key % 3) {
+            case 0:
+                return bus.observeIf(KeyedEvent.class, event -> handled.increment(), event -> event.getKey() == key);
+            case 1:
+                return bus.observeIf(AsyncKeyedEvent.class, event -> handled.increment(), event -> event.getKey() == key);
+            default:
+                return bus.observeIf(CancellableKeyedEvent.class, event -> handled.increment(), event -> event.getKey() == key);
+        }
+    }
+
+    private static double[] zipf(int keys, double skew) {
+        double[] cumulative = new double[keys];
+        double sum = 0.0D;
+        for (int i = 0; i < keys; i++) {
+            sum += 1.0D / Math.pow(i + 1, skew);
+            cumulative[i] = sum;
+        }
+        for (int i = 0; i < keys; i++) {
+            cumulative[i] /= sum;
+        }
+        return cumulative;
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return 0L;
+    }
+
+    static final class Builder {
+        private final Server server;
+        private final EventBus bus;
+        private final List<Mix> mix = new ArrayList<>();
+
+        private BiFunction<EventBus, Integer, Listener> subscriber;
+        private int threads = 4;
+        private int eventsPerThread = 10000;
+        private int subscribers = 64;
+        private int churnInterval = 100;
+        private int keys = 1000;
+        private double skew = 1.0D;
+
+        private Builder(Server server, EventBus bus) {
+            this.server = Preconditions.checkNotNull(server, "server");
+            this.bus = Preconditions.checkNotNull(bus, "bus");
+        }
+
+        Builder event(int weight, IntFunction<? extends Event> factory) {
+            Preconditions.checkArgument(weight > 0, "weight must be positive");
+            mix.add(new Mix(weight, Preconditions.checkNotNull(factory, "factory")));
+            return this;
+        }
+
+        Builder subscriber(BiFunction<EventBus, Integer, Listener> subscriber) {
+            this.subscriber = Preconditions.checkNotNull(subscriber, "subscriber");
+            return this;
+        }
+
+        Builder threads(int threads) {
+            Preconditions.checkArgument(threads > 0, "threads must be positive");
+            this.threads = threads;
+            return this;
+        }
+
+        Builder eventsPerThread(int eventsPerThread) {
+            Preconditions.checkArgument(eventsPerThread > 0, "eventsPerThread must be positive");
+            this.eventsPerThread = eventsPerThread;
+            return this;
+        }
+
+        Builder subscribers(int subscribers) {
+            Preconditions.checkArgument(subscribers >= 0, "subscribers cannot be negative");
+            this.subscribers = subscribers;
+            return this;
+        }
+
+        Builder churnInterval(int churnInterval) {
+            Preconditions.checkArgument(churnInterval >= 0, "churnInterval cannot be negative");
+            this.churnInterval = churnInterval;
+            return this;
+        }
+
+        Builder keys(int keys, double skew) {
+            Preconditions.checkArgument(keys > 0, "keys must be positive");
+            Preconditions.checkArgument(skew >= 0.0D, "skew cannot be negative");
+            this.keys = keys;
+            this.skew = skew;
+            return this;
+        }
+
+        EventStorm build() {
+            if (mix.isEmpty()) {
+                event(3, KeyedEvent::new);
+                event(1, AsyncKeyedEvent::new);
+                event(1, CancellableKeyedEvent::new);
+            }
+            return new EventStorm(this);
+        }
+    }
+
+    static final class Report {
+        private final long[] latencies;
+        private final long elapsed;
+        private final long allocated;
+
+        private Report(long[] latencies, long elapsed, long allocated) {
+            this.latencies = latencies;
+            this.elapsed = elapsed;
+            this.allocated = allocated;
+        }
+
+        long getEvents() {
+            return latencies.length;
+        }
+
+        long percentile(double percentile) {
+            int index = (int) Math.ceil(percentile / 100.0D * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(index, latencies.length - 1))];
+        }
+
+        double getAllocationRate() {
+            return allocated / (elapsed / 1.0E9D);
+        }
+
+        double getThroughput() {
+            return latencies.length / (elapsed / 1.0E9D);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d events in %.1fms (%.0f/s), p50=%dns p99=%dns p999=%dns, allocated %.1fMB/s",
+                    latencies.length, elapsed / 1.0E6D, getThroughput(), percentile(50.0D), percentile(99.0D), percentile(99.9D),
+                    getAllocationRate() / (1024.0D * 1024.0D));
+        }
+    }
+
+    private static final class Mix {
+        private final int weight;
+        private final IntFunction<? extends Event> factory;
+
+        private Mix(int weight, IntFunction<? extends Event> factory) {
+            this.weight = weight;
+            this.factory = factory;
+        }
+    }
+
+    static class KeyedEvent extends Event {
+        private static final HandlerList handlers = new HandlerList();
+
+        private final int key;
+
+        KeyedEvent(int key) {
+            this(key, false);
+        }
+
+        KeyedEvent(int key, boolean async) {
+            super(async);
+            this.key = key;
+        }
+
+        public static HandlerList getHandlerList() {
+            return handlers;
+        }
+
+        public int getKey() {
+            return key;
+        }
+
+        @Override
+        public HandlerList getHandlers() {
+            return handlers;
+        }
+    }
+
+    static class AsyncKeyedEvent extends KeyedEvent {
+        private static final HandlerList handlers = new HandlerList();
+
+        AsyncKeyedEvent(int key) {
+            super(key, true);
+        }
+
+        public static HandlerList getHandlerList() {
+            return handlers;
+        }
+
+        @Override
+        public HandlerList getHandlers() {
+            return handlers;
+        }
+    }
+
+    static class CancellableKeyedEvent extends KeyedEvent implements Cancellable {
+        private static final HandlerList handlers = new HandlerList();
+
+        private boolean cancelled;
+
+        CancellableKeyedEvent(int key) {
+            super(key);
+        }
+
+        public static HandlerList getHandlerList() {
+            return handlers;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void setCancelled(boolean cancelled) {
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        public HandlerList getHandlers() {
+            return handlers;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package ninja.smirking.events.bukkit;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.bukkit.Server;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.powermock.modules.testng.PowerMockTestCase;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs {@link EventStorm} against {@link Events} to catch scaling regressions.
+ * Larger storms are only run when the {@code benchmark} system property is set.
+ *
+ * @author Connor Spencer Harries
+ * @version 1.0
+ * @since 1.0
+ */
+public class EventStormTest extends PowerMockTestCase {
+    private JavaPlugin plugin;
+    private Server server;
+
+    @BeforeMethod
+    public void tinker() throws Exception {
+        server = new MockServer();
+        plugin = new MockPlugin(server);
+    }
+
+    @Test
+    public void testStorm() throws Exception {
+        EventStorm storm = EventStorm.builder(server, new EventBus(plugin))
+                .threads(4)
+                .eventsPerThread(2000)
+                .subscribers(32)
+                .churnInterval(50)
+                .keys(100, 1.1D)
+                .build();
+        EventStorm.Report report = storm.run();
+        System.out.println("[testStorm] " + report);
+
+        assertEquals("Every event should have been dispatched", 8000L, report.getEvents());
+        assertTrue("Some events should have reached a subscriber", storm.getHandled() > 0L);
+        assertTrue("Percentiles should be ordered", report.percentile(50.0D) <= report.percentile(99.0D));
+        assertTrue("Percentiles should be ordered", report.percentile(99.0D) <= report.percentile(99.9D));
+    }
+
+    @Test
+    public void testPipelineStorm() throws Exception {
+        EventBus bus = new EventBus(plugin);
+        LongAdder cancelled = new LongAdder();
+        EventStorm storm = EventStorm.builder(server, bus)
+                .event(1, EventStorm.CancellableKeyedEvent::new)
+                .subscriber((target, key) -> target.pipeline(EventStorm.CancellableKeyedEvent.class, EventPriority.NORMAL, true)
+                        .then(event -> {
+                            if (event.getKey() == key) {
+                                event.setCancelled(true);
+                                cancelled.increment();
+                            }
+                        }))
+                .subscribers(16)
+                .eventsPerThread(2000)
+                .churnInterval(0)
+                .keys(16, 1.0D)
+                .build();
+        EventPipeline<EventStorm.CancellableKeyedEvent> pipeline = bus.pipeline(EventStorm.CancellableKeyedEvent.class, EventPriority.NORMAL, true);
+        EventStorm.Report report = storm.run();
+        System.out.println("[testPipelineStorm] " + report);
+
+        assertEquals("Every event should have been dispatched", 8000L, report.getEvents());
+        assertEquals("Every subscriber should have shared one pipeline", 16, pipeline.size());
+        assertTrue("Events whose key has a subscriber should have been cancelled", cancelled.sum() > 0L);
+        assertTrue("An event can only be cancelled once", cancelled.sum() <= report.getEvents());
+        assertTrue("Percentiles should be ordered", report.percentile(50.0D) <= report.percentile(99.0D));
+    }
+
+    @Test
+    public void testRingStorm() throws Exception {
+        int threads = 4;
+        int events = 5000;
+        LongAdder sum = new LongAdder();
+        CountDownLatch latch = new CountDownLatch(threads * events);
+        EventRing<EventStorm.AsyncKeyedEvent> ring = new EventBus(plugin).ring(EventStorm.AsyncKeyedEvent.class)
+                .bufferSize(64)
+                .waitStrategy(WaitStrategy.yielding())
+                .then(event -> sum.add(event.getKey()))
+                .then(event -> latch.countDown())
+                .start();
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long started = System.nanoTime();
+        for (int thread = 0; thread < threads; thread++) {
+            pool.execute(() -> {
+                for (int i = 0; i < events; i++) {
+                    server.getPluginManager().callEvent(new EventStorm.AsyncKeyedEvent(i));
+                }
+            });
+        }
+        assertTrue("Every event should reach the last stage", latch.await(30L, TimeUnit.SECONDS));
+        System.out.println("[testRingStorm] " + threads * events + " events in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + "ms");
+        pool.shutdown();
+        ring.close();
+
+        assertEquals((long) threads * events, ring.getPublished());
+        assertEquals("Every event should be handled exactly once", (long) threads * events * (events - 1) / 2L, sum.sum());
+    }
+
+    @Test
+    public void testAdaptiveFanOut() throws Exception {
+        AtomicBoolean slow = new AtomicBoolean(true);
+        LongAdder handled = new LongAdder();
+        LongAdder completed = new LongAdder();
+        AtomicReference<CountDownLatch> gate = new AtomicReference<>();
+        ExecutorService pool = Executors.newFixedThreadPool(EventDispatcher.FAN_OUT_MINIMUM);
+        EventDispatcher<EventStorm.KeyedEvent, Integer> dispatcher = new EventBus(plugin).dispatcher(EventStorm.KeyedEvent.class, EventStorm.KeyedEvent::getKey, EventPriority.NORMAL, false, pool)
+                .whenParallelComplete(event -> completed.increment());
+        for (int i = 0; i < EventDispatcher.FAN_OUT_MINIMUM; i++) {
+            dispatcher.observeParallel(event -> {
+                CountDownLatch latch = gate.get();
+                if (latch != null) {
+                    try {
+                        latch.await();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                if (slow.get()) {
+                    long until = System.nanoTime() + EventDispatcher.FAN_OUT_ENTER;
+                    while (System.nanoTime() < until) {
+                        Thread.yield();
+                    }
+                }
+                handled.increment();
+            });
+        }
+
+        // Statistics are sampled, so allow a few windows for warm-up outliers such as the executor starting its threads
+        int window = EventDispatcher.SAMPLE_INTERVAL * EventDispatcher.SAMPLE_WINDOW;
+        int fired = 0;
+        for (int i = 0; i < window * 4 && !dispatcher.isFanningOut(); i++, fired++) {
+            server.getPluginManager().callEvent(new EventStorm.KeyedEvent(i));
+        }
+        assertTrue("Expensive parallel handlers should be fanned out", dispatcher.isFanningOut());
+
+        gate.set(new CountDownLatch(1));
+        long before = handled.sum();
+        server.getPluginManager().callEvent(new EventStorm.KeyedEvent(-1));
+        fired++;
+        assertEquals("The firing thread should not wait for fanned out handlers", before, handled.sum());
+        gate.getAndSet(null).countDown();
+
+        // A preempted handler skews the average of a whole window, so allow more windows on the way back
+        slow.set(false);
+        for (int i = 0; i < window * 16 && dispatcher.isFanningOut(); i++, fired++) {
+            server.getPluginManager().callEvent(new EventStorm.KeyedEvent(i));
+        }
+        assertFalse("Cheap parallel handlers should be run inline again", dispatcher.isFanningOut());
+
+        // Fanned out handlers are not waited for, so wait for the stragglers before counting
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30L);
+        while (completed.sum() < fired && System.nanoTime() - deadline < 0L) {
+            Thread.sleep(1L);
+        }
+        assertEquals("Every event should have completed", fired, completed.sum());
+        assertEquals("Every handler should have run for every event", (long) fired * EventDispatcher.FAN_OUT_MINIMUM, handled.sum());
+        dispatcher.unregister();
+        pool.shutdown();
+    }
+
+    @Test
+    public void testTimedExpiry() throws Exception {
+        int subscriptions = Boolean.getBoolean("benchmark") ? 200000 : 5000;
+        VirtualClock clock = new VirtualClock();
+        EventBus bus = new EventBus(plugin, clock);
+        AtomicLong handled = new AtomicLong();
+        for (int i = 0; i < subscriptions; i++) {
+            bus.observeFor(EventStorm.KeyedEvent.class, event -> handled.incrementAndGet(), 1L + (i % 60), TimeUnit.MINUTES);
+        }
+
+        long started = System.nanoTime();
+        for (int minute = 0; minute <= 61; minute++) {
+            server.getPluginManager().callEvent(new EventStorm.KeyedEvent(minute));
+            clock.advance(1L, TimeUnit.MINUTES);
+        }
+        System.out.println("[testTimedExpiry] " + subscriptions + " subscriptions expired in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + "ms");
+
+        assertEquals("Every subscription should have expired", 0, EventStorm.KeyedEvent.getHandlerList().getRegisteredListeners().length);
+        long expected = 0L;
+        for (int i = 0; i < subscriptions; i++) {
+            expected += 2L + (i % 60);
+        }
+        assertEquals("Each subscription should handle one event per minute of its lifetime", expected, handled.get());
+    }
+
+    @Test
+    public void testBenchmarkStorm() throws Exception {
+        if (Boolean.getBoolean("benchmark")) {
+            EventStorm storm = EventStorm.builder(server, new EventBus(plugin))
+                    .threads(Runtime.getRuntime().availableProcessors())
+                    .eventsPerThread(250000)
+                    .subscribers(2048)
+                    .churnInterval(1000)
+                    .keys(100000, 1.2D)
+                    .build();
+            System.out.println("[testBenchmarkStorm] " + storm.run());
+        }
+    }
+
+    @AfterMethod
+    public void after() throws Exception {
+        HandlerList.unregisterAll(plugin);
+    }
+}
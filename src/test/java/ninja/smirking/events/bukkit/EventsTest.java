@@ -3,14 +3,32 @@ package ninja.smirking.events.bukkit;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
+import com.google.common.base.Preconditions;
 import org.bukkit.Server;
+import org.bukkit.event.Cancellable;
 import org.bukkit.event.Event;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.RegisteredListener;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.mockito.Matchers;
 import org.powermock.api.mockito.PowerMockito;
@@ -22,6 +40,9 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Simple tests that confirm {@link Events} is working as intended.
@@ -97,27 +118,86 @@ public class EventsTest extends PowerMockTestCase {
 
     @Test
     public void testObserveFor() throws Exception {
+        VirtualClock clock = new VirtualClock();
+        Events.init(plugin, clock);
         AtomicInteger counter = new AtomicInteger();
         Events.observeFor(DummyEvent.class, event -> increment(counter), 3L, TimeUnit.SECONDS);
         server.getPluginManager().callEvent(new DummyEvent());
-        Thread.sleep(TimeUnit.SECONDS.toMillis(3L));
+        clock.advance(4L, TimeUnit.SECONDS);
         server.getPluginManager().callEvent(new DummyEvent());
         assertEquals("Event handler should have been fired once", 1, counter.get());
     }
 
     @Test
     public void testObserveFor1() throws Exception {
+        VirtualClock clock = new VirtualClock();
+        Events.init(plugin, clock);
         AtomicInteger counter = new AtomicInteger();
         Events.observeFor(DummyEvent.class, (event, remaining) -> {
             increment(counter);
             log(TimeUnit.MILLISECONDS.toSeconds(remaining) + " seconds left");
         }, 3L, TimeUnit.SECONDS);
         server.getPluginManager().callEvent(new DummyEvent());
-        Thread.sleep(TimeUnit.SECONDS.toMillis(3L));
+        clock.advance(4L, TimeUnit.SECONDS);
         server.getPluginManager().callEvent(new DummyEvent());
         assertEquals("Event handler should have been fired once", 1, counter.get());
     }
 
+    @Test
+    public void testObserveForVirtualClock() throws Exception {
+        AtomicInteger counter = new AtomicInteger();
+        VirtualClock clock = new VirtualClock();
+        new EventBus(plugin, clock).observeFor(DummyEvent.class, event -> increment(counter), 3L, TimeUnit.SECONDS);
+        server.getPluginManager().callEvent(new DummyEvent());
+        clock.advance(3L, TimeUnit.SECONDS);
+        server.getPluginManager().callEvent(new DummyEvent());
+        clock.advance(1L, TimeUnit.NANOSECONDS);
+        server.getPluginManager().callEvent(new DummyEvent());
+        assertEquals("Event handler should have been fired until the duration passed", 2, counter.get());
+    }
+
+    @Test
+    public void testObserveFor1VirtualClock() throws Exception {
+        AtomicInteger counter = new AtomicInteger();
+        List<Long> remainders = new ArrayList<>();
+        VirtualClock clock = new VirtualClock();
+        new EventBus(plugin, clock).observeFor(DummyEvent.class, (event, remaining) -> {
+            increment(counter);
+            remainders.add(remaining);
+            log(TimeUnit.MILLISECONDS.toSeconds(remaining) + " seconds left");
+        }, 3L, TimeUnit.SECONDS);
+        server.getPluginManager().callEvent(new DummyEvent());
+        clock.advance(1L, TimeUnit.SECONDS);
+        server.getPluginManager().callEvent(new DummyEvent());
+        clock.advance(3L, TimeUnit.SECONDS);
+        server.getPluginManager().callEvent(new DummyEvent());
+        assertEquals("Event handler should have been fired twice", 2, counter.get());
+        assertEquals(Arrays.asList(3000L, 2000L), remainders);
+    }
+
+    @Test
+    public void testObserveForBatchedExpiry() throws Exception {
+        VirtualClock clock = new VirtualClock();
+        EventBus bus = new EventBus(plugin, clock);
+        int registered = DummyEvent.getHandlerList().getRegisteredListeners().length;
+        AtomicInteger counter = new AtomicInteger();
+        for (int i = 0; i < 10; i++) {
+            bus.observeFor(DummyEvent.class, event -> increment(counter), i < 6 ? 1L : 5L, TimeUnit.SECONDS);
+        }
+        Listener kept = bus.observeAll(DummyEvent.class, event -> increment(counter));
+
+        clock.advance(2L, TimeUnit.SECONDS);
+        server.getPluginManager().callEvent(new DummyEvent());
+        assertEquals("Only the listeners that have not expired should have been fired", 5, counter.get());
+        assertEquals("Expired listeners should have been unregistered together", registered + 5, DummyEvent.getHandlerList().getRegisteredListeners().length);
+
+        clock.advance(5L, TimeUnit.SECONDS);
+        server.getPluginManager().callEvent(new DummyEvent());
+        assertEquals(6, counter.get());
+        assertEquals(registered + 1, DummyEvent.getHandlerList().getRegisteredListeners().length);
+        HandlerList.unregisterAll(kept);
+    }
+
     @Test
     public void testBenchmark() throws Exception {
         if (Boolean.getBoolean("benchmark")) {
@@ -144,6 +224,654 @@ public class EventsTest extends PowerMockTestCase {
         }
     }
 
+    @Test
+    public void testInit() throws Exception {
+        EventBus bus = Events.init(plugin);
+        assertSame("init should not replace the bus of the same plugin", bus, Events.init(plugin));
+        assertSame("Static methods should delegate to the initialised bus", bus, Events.getBus());
+        assertSame(plugin, bus.getPlugin());
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testInitDifferentClock() throws Exception {
+        assertSame("init should keep the bus when the clock is the same", Events.init(plugin), Events.init(plugin, EventClock.SYSTEM));
+        Events.init(plugin, new VirtualClock());
+    }
+
+    @Test
+    public void testEventBus() throws Exception {
+        EventBus bus = new EventBus(plugin);
+        AtomicInteger counter = new AtomicInteger();
+        bus.observeAll(DummyEvent.class, event -> increment(counter));
+
+        bus.warmUp(DummyEvent.class);
+        assertEquals("Warming up should not call any handler", 0, counter.get());
+        server.getPluginManager().callEvent(new DummyEvent());
+        assertEquals("Event handler should have been fired once", 1, counter.get());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testWarmUpWithoutHandlerList() throws Exception {
+        new EventBus(plugin).warmUp(Event.class);
+    }
+
+    @Test
+    public void testIgnoreCancelled() throws Exception {
+        EventBus bus = new EventBus(plugin);
+        AtomicInteger counter = new AtomicInteger();
+        bus.observeAll(CancellableDummyEvent.class, event -> event.setCancelled(true), EventPriority.LOW);
+        bus.observeAll(CancellableDummyEvent.class, event -> increment(counter), EventPriority.HIGH, true);
+        server.getPluginManager().callEvent(new CancellableDummyEvent());
+        assertEquals("Event handler should not have been fired", 0, counter.get());
+    }
+
+    @Test
+    public void testPipeline() throws Exception {
+        EventBus bus = new EventBus(plugin);
+        AtomicInteger counter = new AtomicInteger();
+        EventPipeline<CancellableDummyEvent> pipeline = bus.pipeline(CancellableDummyEvent.class, EventPriority.NORMAL, true)
+                .then(event -> increment(counter))
+                .then(event -> event.setCancelled(event.getMessage().isEmpty()))
+                .then(event -> increment(counter));
+        assertSame("Pipelines should be shared", pipeline, bus.pipeline(CancellableDummyEvent.class, EventPriority.NORMAL, true));
+
+        server.getPluginManager().callEvent(new CancellableDummyEvent());
+        assertEquals("Stages after the cancelling stage should have been skipped", 1, counter.get());
+        server.getPluginManager().callEvent(new CancellableDummyEvent("Hello World"));
+        assertEquals("Every stage should have been run", 3, counter.get());
+
+        pipeline.unregister();
+        server.getPluginManager().callEvent(new CancellableDummyEvent("Hello World"));
+        assertEquals("Unregistered pipeline should not have been run", 3, counter.get());
+        assertTrue("A new pipeline should have been created", pipeline != bus.pipeline(CancellableDummyEvent.class, EventPriority.NORMAL, true));
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testPipelineThenAfterUnregister() throws Exception {
+        EventPipeline<DummyEvent> pipeline = new EventBus(plugin).pipeline(DummyEvent.class, EventPriority.NORMAL, false);
+        pipeline.then(event -> {
+        }).unregister();
+        pipeline.then(event -> {
+        });
+    }
+
+    @Test
+    public void testPipelineRemoveLastStage() throws Exception {
+        EventBus bus = new EventBus(plugin);
+        int registered = DummyEvent.getHandlerList().getRegisteredListeners().length;
+        AtomicInteger counter = new AtomicInteger();
+        Consumer<DummyEvent> stage = event -> increment(counter);
+        EventPipeline<DummyEvent> pipeline = bus.pipeline(DummyEvent.class, EventPriority.NORMAL, false).then(stage);
+        assertEquals(registered + 1, DummyEvent.getHandlerList().getRegisteredListeners().length);
+
+        assertTrue(pipeline.remove(stage));
+        assertEquals("An empty pipeline should not stay registered", registered, DummyEvent.getHandlerList().getRegisteredListeners().length);
+
+        assertSame("The pipeline should still be shared", pipeline, bus.pipeline(DummyEvent.class, EventPriority.NORMAL, false).then(stage));
+        server.getPluginManager().callEvent(new DummyEvent());
+        assertEquals("The pipeline should have been registered again", 1, counter.get());
+    }
+
+    @Test
+    public void testRegisterSnapshot() throws Exception {
+        EventBus bus = new EventBus(plugin);
+        bus.registerSnapshot(MutableEvent.class, event -> new MutableEvent(event.getMessage()));
+        List<Runnable> queued = new ArrayList<>();
+        List<String> seen = new ArrayList<>();
+        bus.observeOn(MutableEvent.class, event -> seen.add(event.getMessage()), queued::add);
+
+        MutableEvent event = new MutableEvent("Hello");
+        server.getPluginManager().callEvent(event);
+        event.setMessage("World");
+        queued.forEach(Runnable::run);
+        assertEquals("The handler should see the event as it was fired", Arrays.asList("Hello"), seen);
+
+        bus.registerSnapshot(MutableEvent.class, null);
+        event = new MutableEvent("Hello");
+        server.getPluginManager().callEvent(event);
+        event.setMessage("World");
+        queued.subList(0, 1).clear();
+        queued.forEach(Runnable::run);
+        assertEquals("Without a copier the live event should be handed over", Arrays.asList("Hello", "World"), seen);
+    }
+
+    @Test
+    public void testRingSnapshot() throws Exception {
+        EventBus bus = new EventBus(plugin);
+        bus.registerSnapshot(MutableEvent.class, event -> new MutableEvent(event.getMessage()));
+        CountDownLatch mutated = new CountDownLatch(1);
+        CompletableFuture<String> seen = new CompletableFuture<>();
+        EventRing<MutableEvent> ring = bus.ring(MutableEvent.class)
+                .then(event -> {
+                    try {
+                        mutated.await();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                    seen.complete(event.getMessage());
+                })
+                .start();
+        try {
+            MutableEvent event = new MutableEvent("Hello");
+            server.getPluginManager().callEvent(event);
+            event.setMessage("World");
+            mutated.countDown();
+            assertEquals("The stage should see the event as it was fired", "Hello", seen.get(5L, TimeUnit.SECONDS));
+        } finally {
+            ring.close();
+        }
+    }
+
+    @Test
+    public void testFailingSnapshot() throws Exception {
+        EventBus bus = new EventBus(plugin);
+        bus.registerSnapshot(MutableEvent.class, event -> {
+            if (event.getMessage().equals("Throw")) {
+                throw new IllegalStateException("Unable to copy event");
+            }
+            return event.getMessage().equals("Null") ? null : new MutableEvent(event.getMessage());
+        });
+        List<Runnable> queued = new ArrayList<>();
+        bus.observeOn(MutableEvent.class, event -> log(event.getMessage()), queued::add);
+        CompletableFuture<String> first = new CompletableFuture<>();
+        EventRing<MutableEvent> ring = bus.ring(MutableEvent.class).then(event -> first.complete(event.getMessage())).start();
+        try {
+            for (String message : new String[]{"Throw", "Null", "Hello"}) {
+                for (RegisteredListener registered : MutableEvent.getHandlerList().getRegisteredListeners()) {
+                    if (registered.getPlugin() == plugin) {
+                        registered.callEvent(new MutableEvent(message));
+                    }
+                }
+            }
+            assertEquals("Events that could not be copied should not be handed over", 1, queued.size());
+            assertEquals("Events that could not be copied should not be published", "Hello", first.get(5L, TimeUnit.SECONDS));
+        } finally {
+            ring.close();
+        }
+    }
+
+    @Test
+    public void testObserveOn() throws Exception {
+        EventBus bus = new EventBus(plugin);
+        List<Runnable> queued = new ArrayList<>();
+        AtomicInteger counter = new AtomicInteger();
+        bus.observeOn(DummyEvent.class, event -> increment(counter), queued::add);
+        server.getPluginManager().callEvent(new DummyEvent());
+        assertEquals("Event handler should not have been fired inline", 0, counter.get());
+        queued.forEach(Runnable::run);
+        assertEquals("Event handler should have been fired once", 1, counter.get());
+    }
+
+    @Test
+    public void testObserveSnapshot() throws Exception {
+        EventBus bus = new EventBus(plugin);
+        List<Runnable> queued = new ArrayList<>();
+        List<String> snapshots = new ArrayList<>();
+        bus.observeSnapshot(DummyEvent.class, event -> event.getMessage().isEmpty() ? null : event.getMessage(), snapshots::add, queued::add);
+        server.getPluginManager().callEvent(new DummyEvent("Hello World"));
+        server.getPluginManager().callEvent(new DummyEvent());
+        assertEquals("Events projected to null should be skipped", 1, queued.size());
+        assertTrue("Snapshot handler should not have been fired inline", snapshots.isEmpty());
+        queued.forEach(Runnable::run);
+        assertEquals("Hello World", snapshots.get(0));
+    }
+
+    @Test
+    public void testObserveRouted() throws Exception {
+        EventBus bus = new EventBus(plugin);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            AffinityExecutor affinity = new AffinityExecutor(pool, 8);
+            Map<String, List<Integer>> received = new ConcurrentHashMap<>();
+            CountDownLatch latch = new CountDownLatch(400);
+            bus.observeRouted(DummyEvent.class, event -> {
+                String[] parts = event.getMessage().split(":");
+                received.computeIfAbsent(parts[0], key -> new CopyOnWriteArrayList<>()).add(Integer.parseInt(parts[1]));
+                latch.countDown();
+            }, affinity.route(event -> event.getMessage().split(":")[0]));
+
+            for (int i = 0; i < 100; i++) {
+                for (String world : new String[]{"world", "world_nether", "world_the_end", "lobby"}) {
+                    server.getPluginManager().callEvent(new DummyEvent(world + ":" + i));
+                }
+            }
+            assertTrue("Every event should have been handled", latch.await(10L, TimeUnit.SECONDS));
+            for (List<Integer> sequence : received.values()) {
+                for (int i = 0; i < sequence.size(); i++) {
+                    assertEquals("Events with the same key should be handled in order", i, sequence.get(i).intValue());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testObserveRoutedFailures() throws Exception {
+        EventBus bus = new EventBus(plugin);
+        AtomicInteger counter = new AtomicInteger();
+        bus.observeRouted(DummyEvent.class, event -> increment(counter), event -> {
+            throw new IllegalStateException("No route for " + event.getMessage());
+        });
+        bus.observeRouted(DummyEvent.class, event -> increment(counter), new AffinityExecutor(Runnable::run).route(event -> null));
+        bus.observeRouted(DummyEvent.class, event -> increment(counter), event -> task -> {
+            throw new RejectedExecutionException("Executor has been shut down");
+        });
+
+        for (RegisteredListener registered : DummyEvent.getHandlerList().getRegisteredListeners()) {
+            if (registered.getPlugin() == plugin) {
+                registered.callEvent(new DummyEvent());
+            }
+        }
+        assertEquals("Events that could not be routed should be dropped", 0, counter.get());
+    }
+
+    @Test
+    public void testRegisterAll() throws Exception {
+        EventBus bus = new EventBus(plugin);
+        AnnotatedListener listener = new AnnotatedListener();
+        assertEquals("Both annotated methods should have been registered", 2, bus.registerAll(listener).size());
+
+        server.getPluginManager().callEvent(new DummyEvent("Hello World"));
+        server.getPluginManager().callEvent(new DummyEvent("Do you like waffles?"));
+        assertEquals("Unfiltered handler should have been fired twice", 2, listener.all.get());
+        assertEquals("Filtered handler should have been fired once", 1, listener.filtered.get());
+    }
+
+    @Test
+    public void testRegisterAllOverridden() throws Exception {
+        EventBus bus = new EventBus(plugin);
+        OverridingListener listener = new OverridingListener();
+        assertEquals("An overridden handler should only be registered once", 2, bus.registerAll(listener).size());
+
+        server.getPluginManager().callEvent(new DummyEvent("Hello World"));
+        assertEquals("Overriding handler should have been fired once", 1, listener.all.get());
+        assertEquals("Inherited handler should have been fired once", 1, listener.filtered.get());
+    }
+
+    @Test
+    public void testRegisterAllNested() throws Exception {
+        EventBus bus = new EventBus(plugin);
+        assertEquals(1, bus.registerAll(new Nested_Outer.Inner()).size());
+        assertEquals(1, bus.registerAll(new Nested.Outer_Inner()).size());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testRegisterAllWithoutIndex() throws Exception {
+        new EventBus(plugin).registerAll(new Object());
+    }
+
+    @Test
+    public void testCount() throws Exception {
+        EventBus bus = new EventBus(plugin);
+        EventAggregate<Character> aggregate = bus.count(DummyEvent.class, event -> event.getMessage().isEmpty() ? null : event.getMessage().charAt(0));
+        server.getPluginManager().callEvent(new DummyEvent("Hello"));
+        server.getPluginManager().callEvent(new DummyEvent("Hi"));
+        server.getPluginManager().callEvent(new DummyEvent("World"));
+        server.getPluginManager().callEvent(new DummyEvent());
+        assertEquals(2L, aggregate.get('H'));
+        assertEquals(1L, aggregate.get('W'));
+        assertEquals("Events without a key should be skipped", 3L, aggregate.total());
+
+        assertEquals(2L, aggregate.snapshotAndReset().get('H').longValue());
+        assertTrue("Counters should have been reset", aggregate.snapshotAndReset().isEmpty());
+        assertTrue("Idle keys should have been evicted", aggregate.snapshot().isEmpty());
+
+        aggregate.unregister();
+        server.getPluginManager().callEvent(new DummyEvent("Hello"));
+        assertEquals("Unregistered aggregate should not change", 0L, aggregate.total());
+    }
+
+    @Test
+    public void testCountWhileResetting() throws Exception {
+        EventBus bus = new EventBus(plugin);
+        EventAggregate<String> aggregate = bus.count(DummyEvent.class, DummyEvent::getMessage);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            CountDownLatch done = new CountDownLatch(4);
+            for (int thread = 0; thread < 4; thread++) {
+                pool.execute(() -> {
+                    for (int i = 0; i < 100_000; i++) {
+                        aggregate.add("key", 1L);
+                    }
+                    done.countDown();
+                });
+            }
+
+            long counted = 0L;
+            while (done.getCount() > 0L) {
+                counted += aggregate.snapshotAndReset().getOrDefault("key", 0L);
+            }
+            counted += aggregate.snapshotAndReset().getOrDefault("key", 0L);
+            assertEquals("Evicting idle keys should not lose increments", 400_000L, counted);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testSum() throws Exception {
+        EventBus bus = new EventBus(plugin);
+        EventAggregate<String> aggregate = bus.sum(CancellableDummyEvent.class, event -> "length", event -> event.getMessage().length());
+        bus.observeAll(CancellableDummyEvent.class, event -> event.setCancelled(event.getMessage().startsWith("D")));
+        server.getPluginManager().callEvent(new CancellableDummyEvent("Hello"));
+        server.getPluginManager().callEvent(new CancellableDummyEvent("Do you like waffles?"));
+        assertEquals("Cancelled events should not be summed", 5L, aggregate.get("length"));
+    }
+
+    @Test
+    public void testRateLimited() throws Exception {
+        EventBus bus = new EventBus(plugin);
+        List<String> received = new ArrayList<>();
+        bus.observeRateLimited(DummyEvent.class, event -> event.getMessage().isEmpty() ? null : event.getMessage().charAt(0), 0.01D, 2, event -> received.add(event.getMessage()), EventPriority.NORMAL, false);
+        for (String message : new String[]{"Hello", "Hi", "Hey", "World", "Howdy", ""}) {
+            server.getPluginManager().callEvent(new DummyEvent(message));
+        }
+        assertEquals("Each key should only pass its burst", Arrays.asList("Hello", "Hi", "World"), received);
+    }
+
+    @Test
+    public void testRateLimiterSweep() throws Exception {
+        long second = TimeUnit.SECONDS.toNanos(1L);
+        KeyedRateLimiter<String> limiter = new KeyedRateLimiter<>(1D, 1, 0L);
+        assertTrue(limiter.tryAcquire("a", 0L));
+        assertFalse(limiter.tryAcquire("a", second / 2L));
+        assertTrue(limiter.tryAcquire("a", second));
+        assertTrue(limiter.tryAcquire("b", second));
+
+        limiter.sweep(second * 3L / 2L);
+        assertEquals("Keys that have not refilled should be kept", 2, limiter.size());
+        limiter.sweep(second * 2L);
+        assertEquals("Idle keys should be swept", 0, limiter.size());
+        assertTrue(limiter.tryAcquire("a", second * 2L));
+
+        long due = TimeUnit.SECONDS.toNanos(60L);
+        KeyedRateLimiter<Integer> batched = new KeyedRateLimiter<>(1D, 1, 0L);
+        for (int i = 0; i < KeyedRateLimiter.SWEEP_BATCH * 2; i++) {
+            batched.tryAcquire(i, 0L);
+        }
+        batched.tryAcquire(-1, due);
+        assertEquals("A due sweep should only check one batch per call", KeyedRateLimiter.SWEEP_BATCH + 1, batched.size());
+        batched.tryAcquire(-1, due);
+        batched.tryAcquire(-1, due);
+        assertEquals("Later calls should finish the sweep", 1, batched.size());
+
+        VirtualClock clock = new VirtualClock();
+        AtomicInteger counter = new AtomicInteger();
+        new EventBus(plugin, clock).observeRateLimited(DummyEvent.class, DummyEvent::getMessage, 1D, event -> increment(counter));
+        server.getPluginManager().callEvent(new DummyEvent("Hello"));
+        server.getPluginManager().callEvent(new DummyEvent("Hello"));
+        clock.advance(1L, TimeUnit.SECONDS);
+        server.getPluginManager().callEvent(new DummyEvent("Hello"));
+        assertEquals("A permit should be available once the bucket has refilled", 2, counter.get());
+    }
+
+    @Test
+    public void testSubscriptionSet() throws Exception {
+        EventBus bus = new EventBus(plugin);
+        SubscriptionSet set = bus.subscriptionSet();
+        List<String> received = new CopyOnWriteArrayList<>();
+        set.swap(SubscriptionSet.builder().observe(DummyEvent.class, event -> received.add("v1:" + event.getMessage())));
+        server.getPluginManager().callEvent(new DummyEvent("Hello"));
+
+        int registered = DummyEvent.getHandlerList().getRegisteredListeners().length;
+        List<CompletableFuture<Void>> retired = new ArrayList<>();
+        AtomicBoolean retiredWhileRunning = new AtomicBoolean();
+        set.swap(SubscriptionSet.builder().observe(DummyEvent.class, event -> {
+            received.add("v2:" + event.getMessage());
+            retired.add(set.swap(SubscriptionSet.builder().observe(DummyEvent.class, e -> received.add("v3:" + e.getMessage()))));
+            retiredWhileRunning.set(retired.get(0).isDone());
+        }));
+        assertEquals("Swapping the same event types should not register more listeners", registered, DummyEvent.getHandlerList().getRegisteredListeners().length);
+
+        server.getPluginManager().callEvent(new DummyEvent("World"));
+        assertFalse("Handlers that are still running should not be retired", retiredWhileRunning.get());
+        assertTrue("Handlers should be retired once their dispatch completes", retired.get(0).isDone());
+        server.getPluginManager().callEvent(new DummyEvent("Again"));
+        assertEquals(Arrays.asList("v1:Hello", "v2:World", "v3:Again"), received);
+        assertEquals(1, set.size());
+
+        assertTrue(set.close().isDone());
+        server.getPluginManager().callEvent(new DummyEvent("Closed"));
+        assertEquals(3, received.size());
+        assertEquals("Closing should unregister the handler and the monitor that releases events", registered - 2, DummyEvent.getHandlerList().getRegisteredListeners().length);
+    }
+
+    @Test
+    public void testSubscriptionSetAcrossPriorities() throws Exception {
+        EventBus bus = new EventBus(plugin);
+        SubscriptionSet set = bus.subscriptionSet();
+        List<String> received = new CopyOnWriteArrayList<>();
+        List<CompletableFuture<Void>> retired = new ArrayList<>();
+        AtomicBoolean retiredWhileRunning = new AtomicBoolean();
+        SubscriptionSet.Builder next = SubscriptionSet.builder()
+                .observe(DummyEvent.class, event -> received.add("v2:low:" + event.getMessage()), EventPriority.LOW, false)
+                .observe(DummyEvent.class, event -> received.add("v2:high:" + event.getMessage()), EventPriority.HIGH, false);
+        set.swap(SubscriptionSet.builder()
+                .observe(DummyEvent.class, event -> {
+                    received.add("v1:low:" + event.getMessage());
+                    retired.add(set.swap(next));
+                }, EventPriority.LOW, false)
+                .observe(DummyEvent.class, event -> {
+                    received.add("v1:high:" + event.getMessage());
+                    retiredWhileRunning.set(retired.get(0).isDone());
+                }, EventPriority.HIGH, false));
+
+        server.getPluginManager().callEvent(new DummyEvent("Hello"));
+        assertFalse("The old handlers should not be retired before every priority has run", retiredWhileRunning.get());
+        assertTrue("The old handlers should be retired once the event has been dispatched", retired.get(0).isDone());
+        server.getPluginManager().callEvent(new DummyEvent("World"));
+        assertEquals("An event should see one generation at every priority",
+                Arrays.asList("v1:low:Hello", "v1:high:Hello", "v2:low:World", "v2:high:World"), received);
+        set.close();
+    }
+
+    @Test
+    public void testTopology() throws Exception {
+        EventBus bus = new EventBus(plugin);
+        bus.setProfiling(true);
+        bus.observeAll(TopologyEvent.class, event -> {
+        });
+        bus.observeIf(TopologyEvent.class, event -> {
+        }, event -> true, EventPriority.HIGH);
+        bus.count(TopologyEvent.class, DummyEvent::getMessage);
+        Listener direct = new Listener() {
+        };
+        TopologyEvent.getHandlerList().register(new RegisteredListener(direct, (listener, event) -> {
+        }, EventPriority.LOWEST, plugin, false));
+        server.getPluginManager().callEvent(new TopologyEvent("Hello"));
+        server.getPluginManager().callEvent(new TopologyEvent("World"));
+
+        EventTopology topology = bus.topology(true);
+        Map<Class<? extends Event>, List<EventTopology.Subscriber>> byType = topology.byEventType();
+        List<EventTopology.Subscriber> subscribers = byType.get(TopologyEvent.class);
+        assertEquals(4, subscribers.size());
+        assertEquals(EventTopology.Mode.LISTENER, subscribers.get(0).getMode());
+        assertEquals(direct.getClass().getName(), subscribers.get(0).getOrigin());
+        assertEquals(EventTopology.Mode.ALL, subscribers.get(1).getMode());
+        assertEquals(2L, subscribers.get(1).getInvocations());
+        assertEquals("Origin should be recorded whilst profiling", EventsTest.class.getName(), subscribers.get(1).getOrigin());
+        assertEquals(EventTopology.Mode.IF, subscribers.get(2).getMode());
+        assertEquals(EventPriority.HIGH, subscribers.get(2).getPriority());
+        assertEquals(EventTopology.Mode.AGGREGATE, subscribers.get(3).getMode());
+        assertTrue(subscribers.get(3).isIgnoringCancelled());
+
+        assertEquals("Costs should have been reset", 0L, bus.topology(false).byEventType().get(TopologyEvent.class).get(1).getInvocations());
+        assertTrue(topology.toJson().contains("\"mode\":\"if\""));
+        assertTrue(topology.summarize().contains("  HIGH: 1 if [" + plugin.getName() + "]"));
+        TopologyEvent.getHandlerList().unregister(direct);
+    }
+
+    @Test
+    public void testTopologyReRegistered() throws Exception {
+        EventBus bus = new EventBus(plugin);
+        Listener listener = new Listener() {
+        };
+        bus.register(ProfiledEvent.class, listener, EventTopology.Mode.ALL, (l, event) -> {
+        }, EventPriority.NORMAL, false);
+        server.getPluginManager().callEvent(new ProfiledEvent("Hello"));
+        ProfiledEvent.getHandlerList().unregister(listener);
+
+        bus.setProfiling(true);
+        bus.register(ProfiledEvent.class, listener, EventTopology.Mode.IF, (l, event) -> {
+        }, EventPriority.NORMAL, false);
+        server.getPluginManager().callEvent(new ProfiledEvent("World"));
+
+        List<EventTopology.Subscriber> subscribers = bus.topology(false).byEventType().get(ProfiledEvent.class);
+        assertEquals(1, subscribers.size());
+        assertEquals("The probe of the new registration should be reported", EventTopology.Mode.IF, subscribers.get(0).getMode());
+        assertEquals(1L, subscribers.get(0).getInvocations());
+        ProfiledEvent.getHandlerList().unregister(listener);
+    }
+
+    @Test
+    public void testRing() throws Exception {
+        List<String> first = new CopyOnWriteArrayList<>();
+        List<String> second = new CopyOnWriteArrayList<>();
+        List<String> outOfOrder = new CopyOnWriteArrayList<>();
+        CountDownLatch latch = new CountDownLatch(20);
+        EventRing<DummyEvent> ring = new EventBus(plugin).ring(DummyEvent.class)
+                .bufferSize(4)
+                .producer(EventRing.Producer.SINGLE)
+                .then(event -> first.add(event.getMessage()))
+                .then(event -> {
+                    // Assertions thrown on a stage thread would be swallowed, so record the failure instead
+                    if (!first.contains(event.getMessage())) {
+                        outOfOrder.add(event.getMessage());
+                    }
+                    second.add(event.getMessage());
+                    latch.countDown();
+                })
+                .start();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            expected.add("Message " + i);
+            server.getPluginManager().callEvent(new DummyEvent("Message " + i));
+        }
+        assertTrue("Every event should reach the last stage", latch.await(5L, TimeUnit.SECONDS));
+        // The last stage publishes its sequence after handling a batch, which may be just after the latch opened
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5L);
+        while (ring.getHandled() < 20L && System.nanoTime() - deadline < 0L) {
+            Thread.yield();
+        }
+        ring.close();
+        assertTrue("Stages should run in order " + outOfOrder, outOfOrder.isEmpty());
+        assertEquals(expected, first);
+        assertEquals(expected, second);
+        assertEquals(20L, ring.getHandled());
+    }
+
+    @Test
+    public void testRingInterruptedHandler() throws Exception {
+        AtomicInteger handled = new AtomicInteger();
+        EventRing<DummyEvent> ring = new EventBus(plugin).ring(DummyEvent.class)
+                .bufferSize(2)
+                .then(event -> {
+                    handled.incrementAndGet();
+                    Thread.currentThread().interrupt();
+                })
+                .start();
+        try {
+            for (int i = 0; i < 8; i++) {
+                ring.publish(new DummyEvent("Hello"));
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5L);
+            while (ring.getHandled() < 8L && System.nanoTime() - deadline < 0L) {
+                Thread.sleep(1L);
+            }
+            assertEquals("A handler that restores the interrupt flag should not stop the stage", 8, handled.get());
+        } finally {
+            ring.close();
+        }
+    }
+
+    @Test
+    public void testRingClosedWhileFull() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        EventRing<DummyEvent> ring = new EventBus(plugin).ring(DummyEvent.class)
+                .bufferSize(1)
+                .then(event -> {
+                    blocked.countDown();
+                    try {
+                        new CountDownLatch(1).await();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                })
+                .start();
+        ring.publish(new DummyEvent("Hello"));
+        assertTrue(blocked.await(5L, TimeUnit.SECONDS));
+        // The stage is still handling the only slot, so the next event has to wait for space
+        CompletableFuture<Void> waiting = CompletableFuture.runAsync(() -> ring.publish(new DummyEvent("World")));
+
+        ring.close();
+        try {
+            waiting.get(5L, TimeUnit.SECONDS);
+            throw new AssertionError("Publishing to a full, closed ring should fail");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testDispatcher() throws Exception {
+        EventDispatcher<DummyEvent, String> dispatcher = new EventBus(plugin).dispatcher(DummyEvent.class, DummyEvent::getMessage, EventPriority.NORMAL, false, Runnable::run);
+        AtomicInteger all = new AtomicInteger();
+        Map<String, AtomicInteger> counters = new ConcurrentHashMap<>();
+        List<Consumer<DummyEvent>> handlers = new ArrayList<>();
+        dispatcher.observe(event -> increment(all));
+        for (int i = 0; i < EventDispatcher.INDEX_ENTER; i++) {
+            String key = "Key " + i;
+            Consumer<DummyEvent> handler = event -> counters.computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet();
+            handlers.add(handler);
+            assertFalse("Dispatcher should not be indexed below the threshold", dispatcher.isIndexed());
+            dispatcher.observeKey(key, handler);
+        }
+        assertTrue("Dispatcher should be indexed once the threshold is reached", dispatcher.isIndexed());
+
+        server.getPluginManager().callEvent(new DummyEvent("Key 3"));
+        server.getPluginManager().callEvent(new DummyEvent("Key 3"));
+        server.getPluginManager().callEvent(new DummyEvent("Nobody"));
+        assertEquals(3, all.get());
+        assertEquals(2, counters.get("Key 3").get());
+        assertEquals(1, counters.size());
+
+        while (handlers.size() > EventDispatcher.INDEX_EXIT + 1) {
+            dispatcher.remove(handlers.remove(handlers.size() - 1));
+        }
+        assertTrue("Dispatcher should stay indexed until it drops below the lower threshold", dispatcher.isIndexed());
+        dispatcher.remove(handlers.remove(handlers.size() - 1));
+        assertFalse(dispatcher.isIndexed());
+
+        server.getPluginManager().callEvent(new DummyEvent("Key 3"));
+        assertEquals(3, counters.get("Key 3").get());
+        dispatcher.unregister();
+        server.getPluginManager().callEvent(new DummyEvent("Key 3"));
+        assertEquals(4, all.get());
+    }
+
+    @Test
+    public void testDispatcherFailingKey() throws Exception {
+        EventDispatcher<DummyEvent, String> dispatcher = new EventBus(plugin).dispatcher(DummyEvent.class, event -> {
+            Preconditions.checkArgument(!event.getMessage().isEmpty(), "event has no key");
+            return event.getMessage();
+        }, EventPriority.NORMAL, false, Runnable::run);
+        AtomicInteger all = new AtomicInteger();
+        AtomicInteger keyed = new AtomicInteger();
+        dispatcher.observe(event -> increment(all));
+        dispatcher.observeKey("Hello", event -> increment(keyed));
+
+        for (RegisteredListener registered : DummyEvent.getHandlerList().getRegisteredListeners()) {
+            if (registered.getPlugin() == plugin) {
+                registered.callEvent(new DummyEvent(""));
+                registered.callEvent(new DummyEvent("Hello"));
+            }
+        }
+        assertEquals("Handlers that are not keyed should see events without a key", 2, all.get());
+        assertEquals(1, keyed.get());
+        dispatcher.unregister();
+    }
+
     @Test
     public void testExceptionHandling() throws Exception {
         Events.observe(DummyEvent.class, event -> {
@@ -183,4 +911,141 @@ public class EventsTest extends PowerMockTestCase {
             return handlers;
         }
     }
-}
\ No newline at end of file
+
+    static class MutableEvent extends Event {
+        private static final HandlerList handlers = new HandlerList();
+
+        private String message;
+
+        MutableEvent(String message) {
+            this.message = message;
+        }
+
+        public static HandlerList getHandlerList() {
+            return handlers;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public void setMessage(String message) {
+            this.message = message;
+        }
+
+        @Override
+        public HandlerList getHandlers() {
+            return handlers;
+        }
+    }
+
+    static class CancellableDummyEvent extends DummyEvent implements Cancellable {
+        private static final HandlerList handlers = new HandlerList();
+
+        private boolean cancelled;
+
+        public CancellableDummyEvent() {
+            this("");
+        }
+
+        private CancellableDummyEvent(String message) {
+            super(message);
+        }
+
+        public static HandlerList getHandlerList() {
+            return handlers;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void setCancelled(boolean cancelled) {
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        public HandlerList getHandlers() {
+            return handlers;
+        }
+    }
+
+    static class TopologyEvent extends DummyEvent {
+        private static final HandlerList handlers = new HandlerList();
+
+        TopologyEvent(String message) {
+            super(message);
+        }
+
+        public static HandlerList getHandlerList() {
+            return handlers;
+        }
+
+        @Override
+        public HandlerList getHandlers() {
+            return handlers;
+        }
+    }
+
+    static class ProfiledEvent extends DummyEvent {
+        private static final HandlerList handlers = new HandlerList();
+
+        ProfiledEvent(String message) {
+            super(message);
+        }
+
+        public static HandlerList getHandlerList() {
+            return handlers;
+        }
+
+        @Override
+        public HandlerList getHandlers() {
+            return handlers;
+        }
+    }
+
+    static class AnnotatedListener {
+        final AtomicInteger all = new AtomicInteger();
+        final AtomicInteger filtered = new AtomicInteger();
+
+        @Observe
+        void onDummy(DummyEvent event) {
+            all.incrementAndGet();
+        }
+
+        @Observe(priority = EventPriority.HIGH, filter = "startsWithH")
+        void onDummyStartingWithH(DummyEvent event) {
+            filtered.incrementAndGet();
+        }
+
+        boolean startsWithH(DummyEvent event) {
+            return event.getMessage().startsWith("H");
+        }
+    }
+
+    static class OverridingListener extends AnnotatedListener {
+        @Observe
+        @Override
+        void onDummy(DummyEvent event) {
+            super.onDummy(event);
+        }
+    }
+
+    static class Nested_Outer {
+        static class Inner {
+            @Observe
+            void onDummy(DummyEvent event) {
+            }
+        }
+    }
+
+    static class Nested {
+        static class Outer_Inner {
+            @Observe
+            void onDummy(DummyEvent event) {
+            }
+        }
+    }
+}
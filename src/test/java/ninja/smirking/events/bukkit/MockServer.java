@@ -45,9 +45,11 @@ import org.bukkit.util.CachedServerIcon;
 @SuppressWarnings("deprecation")
 final class MockServer implements Server {
     private final PluginManager pluginManager;
+    private final Thread primaryThread;
     private final Logger logger;
 
     public MockServer() {
+        this.primaryThread = Thread.currentThread();
         this.pluginManager = new SimplePluginManager(this, null);
         this.logger = Logger.getLogger("Mock");
     }
@@ -469,7 +471,7 @@ final class MockServer implements Server {
 
     @Override
     public boolean isPrimaryThread() {
-        return false;
+        return Thread.currentThread() == primaryThread;
     }
 
     @Override